@@ -112,11 +112,6 @@ public class MainActivity extends AppCompatActivity {
         getSupportFragmentManager().beginTransaction().show(profileFragment).commit();
     }
 
-    // reloads the guide page
-    public void updateGuides() {
-        mapsFragment.getGuides(false);
-    }
-
     @Override
     public void onBackPressed() {
 
@@ -164,10 +159,8 @@ public class MainActivity extends AppCompatActivity {
             } else {
                 // shows last fragment
                 mapsFragmentManager.popBackStack();
-                // is back stack empty set addGuide button to be visible and refresh page
+                // is back stack empty set addGuide button to be visible, the markers are kept up to date by the live updates
                 if (mapsFragmentManager.getBackStackEntryCount() == 1) {
-                    // reload data
-                    mapsFragment.getGuides(false);
                     mapsFragment.showOverlayBtns();
                 }
             }
@@ -6,8 +6,10 @@ import android.animation.AnimatorSet;
 import android.animation.ObjectAnimator;
 import android.app.Activity;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.graphics.Rect;
+import android.graphics.drawable.BitmapDrawable;
 import android.net.Uri;
 import android.util.Log;
 import android.view.LayoutInflater;
@@ -16,10 +18,12 @@ import android.view.ViewGroup;
 import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.view.animation.DecelerateInterpolator;
+import android.widget.FrameLayout;
 import android.widget.ImageButton;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import androidx.annotation.Nullable;
 import androidx.constraintlayout.widget.ConstraintLayout;
 import androidx.fragment.app.FragmentManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -30,10 +34,13 @@ import com.example.travelguide.classes.GlideApp;
 import com.example.travelguide.classes.Guide;
 import com.example.travelguide.databinding.LocationGuideBinding;
 import com.example.travelguide.fragments.ProfileFragment;
+import com.example.travelguide.helpers.BlurHash;
 import com.example.travelguide.helpers.DeviceDimenHelper;
 import com.example.travelguide.helpers.HelperClass;
+import com.example.travelguide.repositories.ProfileRepository;
 import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.Player;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.exoplayer2.audio.AudioAttributes;
 import com.google.android.exoplayer2.trackselection.DefaultTrackSelector;
@@ -41,7 +48,6 @@ import com.google.android.exoplayer2.ui.PlayerControlView;
 import com.google.android.exoplayer2.ui.PlayerView;
 import com.parse.FindCallback;
 import com.parse.ParseException;
-import com.parse.ParseFile;
 import com.parse.ParseObject;
 import com.parse.ParseQuery;
 import com.parse.ParseUser;
@@ -76,6 +82,9 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
     // The system "short" animation time duration, in milliseconds.
     private final int shortAnimationDuration = 100;
     private final int playerHeightMult = 6;
+    // height to width ratios media rows are kept between, media outside them is cropped
+    private static final float MIN_MEDIA_RATIO = 9f / 16;
+    private static final float MAX_MEDIA_RATIO = 5f / 4;
 
     // load bounce animation
     Animation bounceAnim;
@@ -131,23 +140,13 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
             return;
 
 
-        String profileUrl = null;
-        try {
-            profileUrl = ((ParseFile) guide.getAuthor().fetchIfNeeded().get("avatar")).getUrl();
-        } catch (ParseException e) {
-            e.printStackTrace();
-        }
+        // the author snapshot saved with the guide, so the author doesn't have to be fetched
+        String profileUrl = guide.getAuthorAvatarUrl();
 
         if (profileUrl != null)
             HelperClass.loadCircularImage(profileUrl, context, 100, 100, holder.ivAvatar);
 
-
-        try {
-            setTextViewText(holder.tvUsername, guide.getAuthor().fetchIfNeeded().getUsername());
-        } catch (ParseException e) {
-            setTextViewText(holder.tvUsername, "");
-            e.printStackTrace();
-        }
+        setTextViewText(holder.tvUsername, guide.getAuthorName() != null ? guide.getAuthorName() : "");
         setTextViewText(holder.tvDetail, guide.getText());
         setTextViewText(holder.tvCreatedAt, guide.getTimeStamp());
         setTextViewText(holder.tvLikes, String.valueOf(guide.getLikes()));
@@ -189,6 +188,56 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
         updateOriginalGuides();
     }
 
+    // replaces the guide with the same id, or adds it on top when it is new
+    public void upsert(Guide guide) {
+
+        int position = indexOf(originalGuides, guide.getObjectId());
+        if (position >= 0) {
+            originalGuides.set(position, guide);
+        } else {
+            originalGuides.add(0, guide);
+        }
+
+        // a filtered list only shows the change of a guide it already has
+        if (guides != originalGuides) {
+            position = indexOf(guides, guide.getObjectId());
+            if (position < 0)
+                return;
+            guides.set(position, guide);
+        }
+
+        if (position >= 0) {
+            notifyItemChanged(position);
+        } else {
+            notifyItemInserted(0);
+        }
+    }
+
+    // removes the guide with the id from the list
+    public void remove(String guideID) {
+
+        int position = indexOf(originalGuides, guideID);
+        if (position >= 0)
+            originalGuides.remove(position);
+
+        if (guides != originalGuides) {
+            position = indexOf(guides, guideID);
+            if (position >= 0)
+                guides.remove(position);
+        }
+
+        if (position >= 0)
+            notifyItemRemoved(position);
+    }
+
+    private static int indexOf(List<Guide> list, String guideID) {
+        for (int i = 0; i < list.size(); i++) {
+            if (guideID.equals(list.get(i).getObjectId()))
+                return i;
+        }
+        return -1;
+    }
+
     @Override
     public long getItemId(int position) {
         return position;
@@ -246,6 +295,15 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
         private final ImageButton ibThumb;
         public PlayerView epPlayerView;
         public PlayerControlView epPlayerControlView;
+        private final ImageView ivVideoPlaceholder;
+        private final int defaultVideoHeight;
+
+        // guide the media views were last bound to, placeholders decoded for an earlier guide are dropped
+        private Guide mediaGuide;
+
+        // hides the placeholder on the first frame, removed from its player when the row is bound again
+        private Player placeholderPlayer;
+        private Player.Listener placeholderListener;
 
         public ViewHolder(LocationGuideBinding binding) {
             super(binding.getRoot());
@@ -266,6 +324,14 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
 
             // ensures that player control view doesn't disappear
             epPlayerControlView.setShowTimeoutMs(0);
+
+            // drawn over the video until its first frame is rendered
+            defaultVideoHeight = epPlayerView.getLayoutParams().height;
+            ivVideoPlaceholder = new ImageView(epPlayerView.getContext());
+            ivVideoPlaceholder.setScaleType(ImageView.ScaleType.CENTER_CROP);
+            if (epPlayerView.getOverlayFrameLayout() != null)
+                epPlayerView.getOverlayFrameLayout().addView(ivVideoPlaceholder,
+                        new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT, ViewGroup.LayoutParams.MATCH_PARENT));
         }
     }
 
@@ -298,9 +364,10 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
                     object.saveInBackground();
                 }
 
+                // the server takes the like off the guide when its row is deleted, the new count arrives with the guide's next update
                 guide.setGuideLiked(false);
-                guide.saveInBackground();
-                setTextViewText(holder.tvLikes, String.valueOf(guide.getLikes()));
+                ProfileRepository.getInstance().invalidateLikedGuides(ParseUser.getCurrentUser().getObjectId());
+                setTextViewText(holder.tvLikes, String.valueOf(Math.max(0, guide.getLikes() - 1)));
 
                 // if list is in profile update liked list
                 if (inProfile) {
@@ -322,6 +389,7 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
 
                 likeActivity.put(com.example.travelguide.classes.Activity.getKeyUserId(), ParseUser.getCurrentUser());
                 likeActivity.put(com.example.travelguide.classes.Activity.getKeyGuideId(), guide);
+                likeActivity.put(com.example.travelguide.classes.Activity.getKeyType(), com.example.travelguide.classes.Activity.TYPE_LIKE);
 
                 likeActivity.saveInBackground(new SaveCallback() {
                     @Override
@@ -333,12 +401,11 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
                             // if guide isn't liked
                             if (!guide.isGuideLiked()) {
 
-                                // update ui state and save like
+                                // update ui state, the server adds the like to the guide when the row is saved
                                 guide.setGuideLiked(true);
-                                guide.setLikes(guide.getLikes() + 1);
-                                guide.saveInBackground();
+                                ProfileRepository.getInstance().invalidateLikedGuides(ParseUser.getCurrentUser().getObjectId());
 
-                                setTextViewText(holder.tvLikes, String.valueOf(guide.getLikes()));
+                                setTextViewText(holder.tvLikes, String.valueOf(guide.getLikes() + 1));
                             }
                         }
                     }
@@ -365,23 +432,38 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
     }
 
     private void fillMediaLayout(ViewHolder holder, Guide guide) {
+
+        holder.mediaGuide = guide;
+        removePlaceholderListener(holder);
+
         if (guide.getPhoto() != null || guide.getVideo() != null || guide.getAudio() != null) {
 
             holder.mediaLayout.setVisibility(View.VISIBLE);
 
             if (guide.getPhoto() != null) {
 
-                String photoUrl = guide.getPhoto().getUrl();
+                // requests the smallest rendition that fills the row
+                String photoUrl = guide.getPhotoUrl(Guide.FEED_IMG_DIMEN);
                 if (photoUrl != null) {
 
                     // sets view to be visible
                     holder.ibThumb.setVisibility(View.VISIBLE);
                     holder.epPlayerView.setVisibility(View.GONE);
+                    holder.epPlayerControlView.setVisibility(View.GONE);
 
-                    GlideApp.with(context)
-                            .load(photoUrl).centerCrop()
-                            .override((int) (HelperClass.detailImgDimen * 1.7), (int) (HelperClass.detailImgDimen * 1.7))
-                            .transform(new RoundedCornersTransformation(HelperClass.picRadius, 10)).into(holder.ibThumb);
+                    float ratio = sizeMediaView(holder.ibThumb, guide, ViewGroup.LayoutParams.WRAP_CONTENT, ViewGroup.LayoutParams.WRAP_CONTENT);
+
+                    if (guide.getBlurHash() == null) {
+                        loadPhoto(holder, guide, photoUrl, ratio, null);
+                    } else {
+
+                        // the photo of the guide the row showed before is cleared while the placeholder is decoded
+                        GlideApp.with(context).clear(holder.ibThumb);
+                        BlurHash.decodeInBackground(guide.getBlurHash(), guide.getMediaWidth(), guide.getMediaHeight(), placeholder -> {
+                            if (holder.mediaGuide == guide)
+                                loadPhoto(holder, guide, photoUrl, ratio, placeholder);
+                        });
+                    }
 
                     holder.ibThumb.setOnClickListener(new View.OnClickListener() {
                         @Override
@@ -389,7 +471,8 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
 
                             // shows background
                             expandedImageViewBG.setVisibility(View.VISIBLE);
-                            zoomImageFromThumb(holder.ibThumb, photoUrl, expandedImageView, expandedImageViewBG);
+                            zoomImageFromThumb(holder.ibThumb, guide.getPhotoUrl(DeviceDimenHelper.getDisplayWidthPixels(context)),
+                                    photoUrl, expandedImageView, expandedImageViewBG);
                         }
                     });
                 }
@@ -437,6 +520,9 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
                     holder.epPlayerView.setVisibility(View.VISIBLE);
                     holder.epPlayerControlView.setVisibility(View.GONE);
 
+                    sizeMediaView(holder.epPlayerView, guide, ViewGroup.LayoutParams.MATCH_PARENT, holder.defaultVideoHeight);
+                    showVideoPlaceholder(holder, guide);
+
                     mediaUri = Uri.parse(guide.getVideo().getUrl());
                 }
 
@@ -456,7 +542,83 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
                 exoPlayer.prepare();
                 exoPlayer.setPlayWhenReady(false);
             }
+        } else {
+            holder.mediaLayout.setVisibility(View.GONE);
+        }
+    }
+
+    /**
+     * sizes the media view from the size recorded with the guide before anything is loaded,
+     * so the row keeps its height when the media arrives
+     *
+     * @param defaultWidth  width used for guides created before the size was recorded.
+     * @param defaultHeight height used for guides created before the size was recorded.
+     * @return the height to width ratio the view was given, 1 when the size isn't known.
+     */
+    private static float sizeMediaView(View view, Guide guide, int defaultWidth, int defaultHeight) {
+
+        ConstraintLayout.LayoutParams params = (ConstraintLayout.LayoutParams) view.getLayoutParams();
+        float ratio = 1;
+
+        if (guide.hasMediaSize()) {
+            ratio = Math.max(MIN_MEDIA_RATIO, Math.min(MAX_MEDIA_RATIO, (float) guide.getMediaHeight() / guide.getMediaWidth()));
+
+            // the height follows the width the row is laid out with
+            params.width = ConstraintLayout.LayoutParams.MATCH_CONSTRAINT;
+            params.height = ConstraintLayout.LayoutParams.MATCH_CONSTRAINT;
+            params.dimensionRatio = "H,1:" + ratio;
+        } else {
+            params.width = defaultWidth;
+            params.height = defaultHeight;
+            params.dimensionRatio = null;
+        }
+
+        view.setLayoutParams(params);
+        return ratio;
+    }
+
+    // loads the feed photo cropped to the ratio of the row, the placeholder is shown until the thumb arrives
+    private void loadPhoto(ViewHolder holder, Guide guide, String photoUrl, float ratio, @Nullable Bitmap placeholder) {
+
+        GlideApp.with(context)
+                .load(photoUrl).centerCrop()
+                .placeholder(placeholder != null ? new BitmapDrawable(context.getResources(), placeholder) : null)
+                .thumbnail(GlideApp.with(context).load(guide.getPhotoUrl(Guide.THUMB_IMG_DIMEN)).centerCrop())
+                .override(Guide.FEED_IMG_DIMEN, Math.round(Guide.FEED_IMG_DIMEN * ratio))
+                .transform(new RoundedCornersTransformation(HelperClass.picRadius, 10)).into(holder.ibThumb);
+    }
+
+    // covers the player with the decoded placeholder until the first frame of the video is rendered
+    private void showVideoPlaceholder(ViewHolder holder, Guide guide) {
+
+        holder.ivVideoPlaceholder.setImageDrawable(null);
+        holder.ivVideoPlaceholder.setVisibility(View.VISIBLE);
+
+        if (guide.getBlurHash() != null) {
+            BlurHash.decodeInBackground(guide.getBlurHash(), guide.getMediaWidth(), guide.getMediaHeight(), placeholder -> {
+                if (holder.mediaGuide == guide)
+                    holder.ivVideoPlaceholder.setImageBitmap(placeholder);
+            });
         }
+
+        holder.placeholderListener = new Player.Listener() {
+            @Override
+            public void onRenderedFirstFrame() {
+                holder.ivVideoPlaceholder.setVisibility(View.GONE);
+            }
+        };
+        holder.placeholderPlayer = exoPlayer;
+        exoPlayer.addListener(holder.placeholderListener);
+    }
+
+    // a row only listens to the player of its latest bind, so listeners don't pile up while scrolling
+    private static void removePlaceholderListener(ViewHolder holder) {
+
+        if (holder.placeholderPlayer != null)
+            holder.placeholderPlayer.removeListener(holder.placeholderListener);
+
+        holder.placeholderPlayer = null;
+        holder.placeholderListener = null;
     }
 
     // uses a join table to check if the user likes the post
@@ -465,6 +627,7 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
         ParseQuery<ParseObject> query = ParseQuery.getQuery("Activity");
 
         query.whereEqualTo(com.example.travelguide.classes.Activity.getKeyUserId(), ParseUser.getCurrentUser());
+        query.whereEqualTo(com.example.travelguide.classes.Activity.getKeyType(), com.example.travelguide.classes.Activity.TYPE_LIKE);
         query.whereEqualTo(com.example.travelguide.classes.Activity.getKeyGuideId(), guide);
 
         query.findInBackground(findCallback);
@@ -473,7 +636,7 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
     /* creates an expanded view after clicking on thumbnail
      * ref: https://developer.android.com/training/animation/zoom.html
      */
-    private void zoomImageFromThumb(final View thumbView, String imgUrl, ImageView expandedImageView, View expandedImageViewBG) {
+    private void zoomImageFromThumb(final View thumbView, String imgUrl, String thumbUrl, ImageView expandedImageView, View expandedImageViewBG) {
 
         // If there's an animation in progress, cancel it
         // immediately and proceed with this one.
@@ -486,8 +649,8 @@ public class GuidesAdapter extends RecyclerView.Adapter<GuidesAdapter.ViewHolder
             expandedImageViewBG.setVisibility(View.VISIBLE);
         }
 
-        // Load the high-resolution "zoomed-in" image.
-        GlideApp.with(context).load(imgUrl).into(expandedImageView);
+        // Load the high-resolution "zoomed-in" image, showing the already loaded feed image until it arrives
+        GlideApp.with(context).load(imgUrl).thumbnail(GlideApp.with(context).load(thumbUrl)).into(expandedImageView);
 
         // Calculate the starting and ending bounds for the zoomed-in image.
         // This step involves lots of math. Yay, math.
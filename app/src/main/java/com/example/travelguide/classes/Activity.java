@@ -14,6 +14,10 @@ public class Activity extends ParseObject {
     private static final String KEY_LOC_ID = "locationID";
     private static final String KEY_TYPE = "type";
 
+    // values of the type key
+    public static final String TYPE_LIKE = "like";
+    public static final String TYPE_FOLLOW = "follow";
+
 
     public Guide getGuide() {
         return (Guide) getParseObject(KEY_GUIDE_ID);
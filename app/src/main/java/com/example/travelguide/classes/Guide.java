@@ -25,23 +25,45 @@ public class Guide extends ParseObject {
     private static final String KEY_TEXT = "text";
     private static final String KEY_LOCATION = "locationID";
     private static final String KEY_PHOTO = "photo";
+    private static final String KEY_PHOTO_THUMB = "photoThumb";
+    private static final String KEY_PHOTO_FULL = "photoFull";
     private static final String KEY_AUDIO = "audio";
     private static final String KEY_VIDEO = "video";
     private static final String KEY_LIKES = "likes";
+    // snapshot of the author kept up to date by the server, so rows don't need the author
+    private static final String KEY_AUTHOR_NAME = "authorName";
+    private static final String KEY_AUTHOR_AVATAR_URL = "authorAvatarUrl";
+    private static final String KEY_AUTHOR_AVATAR_VERSION = "authorAvatarVersion";
+    private static final String KEY_USER_AVATAR = "avatar";
+    private static final String KEY_USER_AVATAR_VERSION = "avatarVersion";
+    // size of the photo or video and length of the video or audio in ms, recorded when the guide is composed
+    private static final String KEY_MEDIA_WIDTH = "mediaWidth";
+    private static final String KEY_MEDIA_HEIGHT = "mediaHeight";
+    private static final String KEY_MEDIA_DURATION = "mediaDuration";
+    // BlurHash of the photo or first video frame, drawn while the media loads
+    private static final String KEY_BLUR_HASH = "blurHash";
+
+    // widths of the different photo renditions uploaded for a guide
+    public static final int THUMB_IMG_DIMEN = 160;
+    public static final int FEED_IMG_DIMEN = 800;
+    public static final int FULL_IMG_DIMEN = 1600;
 
     private boolean guideLiked = false;
 
-    // set the guide likes
+    // the like count itself is kept by the server from the like activities
     public void setGuideLiked(boolean liked){
-
-        if (!liked && getLikes() > 0){
-            setLikes(getLikes() - 1);
-        }
         guideLiked = liked;
     }
 
+    // the snapshot is set here so the new guide shows straight away, the server sets it again when it is saved
     public void setAuthor(ParseUser user) {
         put(KEY_AUTHOR, user);
+        put(KEY_AUTHOR_NAME, user.getUsername());
+        put(KEY_AUTHOR_AVATAR_VERSION, user.getInt(KEY_USER_AVATAR_VERSION));
+
+        ParseFile avatar = user.getParseFile(KEY_USER_AVATAR);
+        if (avatar != null)
+            put(KEY_AUTHOR_AVATAR_URL, avatar.getUrl());
     }
 
     public void setText(String newText) {
@@ -56,6 +78,14 @@ public class Guide extends ParseObject {
         put(KEY_PHOTO, newPhoto);
     }
 
+    public void setPhotoThumb(ParseFile newPhotoThumb) {
+        put(KEY_PHOTO_THUMB, newPhotoThumb);
+    }
+
+    public void setPhotoFull(ParseFile newPhotoFull) {
+        put(KEY_PHOTO_FULL, newPhotoFull);
+    }
+
     public void setVideo(ParseFile newVideo) {
         put(KEY_VIDEO, newVideo);
     }
@@ -64,8 +94,22 @@ public class Guide extends ParseObject {
         put(KEY_AUDIO, newAudio);
     }
 
-    public void setLikes(int newLikes) {
-        put(KEY_LIKES, newLikes);
+    // sets a media file given the column it is stored in
+    public void setMedia(String key, ParseFile newMedia) {
+        put(key, newMedia);
+    }
+
+    public void setMediaSize(int width, int height) {
+        put(KEY_MEDIA_WIDTH, width);
+        put(KEY_MEDIA_HEIGHT, height);
+    }
+
+    public void setMediaDuration(long durationMs) {
+        put(KEY_MEDIA_DURATION, durationMs);
+    }
+
+    public void setBlurHash(String blurHash) {
+        put(KEY_BLUR_HASH, blurHash);
     }
 
     public LatLng getLocation() {
@@ -80,10 +124,49 @@ public class Guide extends ParseObject {
         return getParseUser(KEY_AUTHOR);
     }
 
+    public String getAuthorName() {
+        return getString(KEY_AUTHOR_NAME);
+    }
+
+    public String getAuthorAvatarUrl() {
+        return getString(KEY_AUTHOR_AVATAR_URL);
+    }
+
+    public int getAuthorAvatarVersion() {
+        return getInt(KEY_AUTHOR_AVATAR_VERSION);
+    }
+
     public ParseFile getPhoto() {
         return getParseFile(KEY_PHOTO);
     }
 
+    public ParseFile getPhotoThumb() {
+        return getParseFile(KEY_PHOTO_THUMB);
+    }
+
+    public ParseFile getPhotoFull() {
+        return getParseFile(KEY_PHOTO_FULL);
+    }
+
+    // returns the url of the smallest photo rendition that covers the target width
+    public String getPhotoUrl(int targetWidth) {
+
+        ParseFile rendition = null;
+
+        if (targetWidth <= THUMB_IMG_DIMEN) {
+            rendition = getPhotoThumb();
+        } else if (targetWidth > FEED_IMG_DIMEN) {
+            rendition = getPhotoFull();
+        }
+
+        // guides created before renditions only have the feed photo
+        if (rendition == null) {
+            rendition = getPhoto();
+        }
+
+        return rendition != null ? rendition.getUrl() : null;
+    }
+
     public ParseFile getVideo() {
         return getParseFile(KEY_VIDEO);
     }
@@ -96,6 +179,27 @@ public class Guide extends ParseObject {
         return getInt(KEY_LIKES);
     }
 
+    // 0 for guides created before the size was recorded
+    public int getMediaWidth() {
+        return getInt(KEY_MEDIA_WIDTH);
+    }
+
+    public int getMediaHeight() {
+        return getInt(KEY_MEDIA_HEIGHT);
+    }
+
+    public boolean hasMediaSize() {
+        return getMediaWidth() > 0 && getMediaHeight() > 0;
+    }
+
+    public long getMediaDuration() {
+        return getLong(KEY_MEDIA_DURATION);
+    }
+
+    public String getBlurHash() {
+        return getString(KEY_BLUR_HASH);
+    }
+
 
     public static String getKeyCreationDate() {
         return KEY_CREATION_DATE;
@@ -117,6 +221,14 @@ public class Guide extends ParseObject {
         return KEY_PHOTO;
     }
 
+    public static String getKeyPhotoThumb() {
+        return KEY_PHOTO_THUMB;
+    }
+
+    public static String getKeyPhotoFull() {
+        return KEY_PHOTO_FULL;
+    }
+
     public static String getKeyAudio() {
         return KEY_AUDIO;
     }
@@ -129,6 +241,34 @@ public class Guide extends ParseObject {
         return KEY_LIKES;
     }
 
+    public static String getKeyAuthorName() {
+        return KEY_AUTHOR_NAME;
+    }
+
+    public static String getKeyAuthorAvatarUrl() {
+        return KEY_AUTHOR_AVATAR_URL;
+    }
+
+    public static String getKeyAuthorAvatarVersion() {
+        return KEY_AUTHOR_AVATAR_VERSION;
+    }
+
+    public static String getKeyMediaWidth() {
+        return KEY_MEDIA_WIDTH;
+    }
+
+    public static String getKeyMediaHeight() {
+        return KEY_MEDIA_HEIGHT;
+    }
+
+    public static String getKeyMediaDuration() {
+        return KEY_MEDIA_DURATION;
+    }
+
+    public static String getKeyBlurHash() {
+        return KEY_BLUR_HASH;
+    }
+
     public boolean isGuideLiked() {
         return guideLiked;
     }
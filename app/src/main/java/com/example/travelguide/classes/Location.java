@@ -5,6 +5,8 @@ import com.parse.ParseClassName;
 import com.parse.ParseGeoPoint;
 import com.parse.ParseObject;
 
+import java.util.Date;
+
 @ParseClassName("Location")
 public class Location extends ParseObject {
 
@@ -14,16 +16,16 @@ public class Location extends ParseObject {
     private static final String KEY_COORD = "coordinates";
     private static final String KEY_PLACE_ID = "placeID";
     private static final String KEY_FOLLOWERS = "followers";
+    private static final String KEY_NUM_GUIDES = "numGuides";
+    private static final String KEY_TOTAL_LIKES = "totalLikes";
+    private static final String KEY_TREND_SCORE = "trendScore";
+    private static final String KEY_TREND_UPDATED_AT = "trendUpdatedAt";
 
 
     public void setCoord(double latitude, double longitude) {
         put(KEY_COORD, new ParseGeoPoint(latitude, longitude));
     }
 
-    public void setNumFollowers(int numFollowers) {
-        put(KEY_FOLLOWERS, numFollowers);
-    }
-
     public LatLng getCoord() {
 
         ParseGeoPoint coord = getParseGeoPoint(KEY_COORD);
@@ -41,6 +43,24 @@ public class Location extends ParseObject {
         return getInt(KEY_FOLLOWERS);
     }
 
+    // counters are maintained by the server triggers, clients can't write them
+    public int getNumGuides() {
+        return getInt(KEY_NUM_GUIDES);
+    }
+
+    public int getTotalLikes() {
+        return getInt(KEY_TOTAL_LIKES);
+    }
+
+    // the score is relative to a fixed epoch on the server, only useful for ordering locations
+    public double getTrendScore() {
+        return getDouble(KEY_TREND_SCORE);
+    }
+
+    public Date getTrendUpdatedAt() {
+        return getDate(KEY_TREND_UPDATED_AT);
+    }
+
     public String getPlaceID() {
         return getString(KEY_PLACE_ID);
     }
@@ -49,10 +69,6 @@ public class Location extends ParseObject {
         put(KEY_PLACE_ID, id);
     }
 
-    public void setFollowers(int followers) {
-        put(KEY_FOLLOWERS, followers);
-    }
-
     public static String getKeyCreationDate() {
         return KEY_CREATION_DATE;
     }
@@ -68,4 +84,20 @@ public class Location extends ParseObject {
     public static String getKeyFollowers() {
         return KEY_FOLLOWERS;
     }
+
+    public static String getKeyNumGuides() {
+        return KEY_NUM_GUIDES;
+    }
+
+    public static String getKeyTotalLikes() {
+        return KEY_TOTAL_LIKES;
+    }
+
+    public static String getKeyTrendScore() {
+        return KEY_TREND_SCORE;
+    }
+
+    public static String getKeyTrendUpdatedAt() {
+        return KEY_TREND_UPDATED_AT;
+    }
 }
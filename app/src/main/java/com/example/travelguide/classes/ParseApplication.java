@@ -4,6 +4,9 @@ import android.app.Application;
 import android.util.Log;
 
 import com.example.travelguide.R;
+import com.example.travelguide.repositories.FollowRepository;
+import com.example.travelguide.repositories.LiveUpdates;
+import com.example.travelguide.repositories.OfflineStore;
 import com.parse.Parse;
 import com.parse.ParseException;
 import com.parse.ParseInstallation;
@@ -32,6 +35,9 @@ public class ParseApplication extends Application {
                 .applicationId("LehUdwXhP2IpTN6Tnu7gXIayECJALrtOKyEao0N5")
                 .clientKey("qjnlfP8YLU5Ck78BS5juNBr4hWa5YjdbYAyxSwML")
                 .server("https://parseapi.back4app.com")
+                // keeps pinned guides and locations on the device so they open offline,
+                // and one instance per objectId that fetches are merged into, which the repositories rely on
+                .enableLocalDataStore()
                 .build()
         );
 
@@ -47,5 +53,13 @@ public class ParseApplication extends Application {
 
         // Save the updated installation object
         installation.saveInBackground(e -> Log.i(TAG, "Installation object saved " + ((e != null) ? "failed" : "successfully")));
+
+        // real-time updates of the guides and locations the open screens show
+        LiveUpdates.initialize(this);
+
+        // restores the followed locations saved on the device and refreshes them for a logged in user
+        OfflineStore.initialize(this);
+        FollowRepository.initialize(this);
+        FollowRepository.getInstance().load();
     }
 }
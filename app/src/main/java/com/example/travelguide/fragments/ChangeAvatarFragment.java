@@ -24,6 +24,7 @@ import com.example.travelguide.R;
 import com.example.travelguide.activities.EntryActivity;
 import com.example.travelguide.activities.MainActivity;
 import com.example.travelguide.helpers.HelperClass;
+import com.example.travelguide.helpers.MediaUploader;
 import com.parse.ParseFile;
 import com.parse.ParseUser;
 
@@ -154,32 +155,43 @@ public class ChangeAvatarFragment extends Fragment {
 
         useBtn.setOnClickListener(v -> {
 
-            // change the profile photo of the current user
-            ParseUser currentUser = ParseUser.getCurrentUser();
-            currentUser.put("avatar", new ParseFile(avatarFile));
+            // uploads the avatar unless the same image was uploaded before
+            MediaUploader.uploadInBackground(avatarFile, null, (file, uploadError) -> {
+                if (uploadError != null)
+                    Log.i(TAG, "there was an error uploading the profile photo");
 
-            currentUser.saveInBackground(e -> {
-                if (e != null) {
-                    Log.i(TAG, "there was an error saving the profile photo");
-                } else {
+                saveAvatar(file);
+            });
+        });
+    }
+
+    // change the profile photo of the current user
+    private void saveAvatar(ParseFile avatar) {
 
+        ParseUser currentUser = ParseUser.getCurrentUser();
+        currentUser.put("avatar", avatar);
 
-                    // navigates to different sections depending on where it is shown
-                    if (inProfile) {
+        currentUser.saveInBackground(e -> {
+            if (e != null) {
+                Log.i(TAG, "there was an error saving the profile photo");
+            } else {
 
-                        if (getParentFragment() != null) {
 
-                            // reload avatar
-                            ((ProfileFragment) getParentFragment()).loadAvatar();
-                            ((ProfileFragment) getParentFragment()).loadViewPager();
+                // navigates to different sections depending on where it is shown
+                if (inProfile) {
 
-                            ((MainActivity) getActivity()).onBackPressed();
-                        }
-                    } else {
-                        ((EntryActivity) requireActivity()).navigateToMapView();
+                    if (getParentFragment() != null) {
+
+                        // reload avatar
+                        ((ProfileFragment) getParentFragment()).loadAvatar();
+                        ((ProfileFragment) getParentFragment()).loadViewPager();
+
+                        ((MainActivity) getActivity()).onBackPressed();
                     }
+                } else {
+                    ((EntryActivity) requireActivity()).navigateToMapView();
                 }
-            });
+            }
         });
     }
 }
@@ -29,11 +29,15 @@ import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
 
 import com.example.travelguide.R;
-import com.example.travelguide.activities.MainActivity;
 import com.example.travelguide.classes.Guide;
 import com.example.travelguide.classes.Location;
 import com.example.travelguide.helpers.DeviceDimenHelper;
 import com.example.travelguide.helpers.HelperClass;
+import com.example.travelguide.helpers.MediaMetadata;
+import com.example.travelguide.helpers.MediaUploader;
+import com.example.travelguide.helpers.VideoTranscoder;
+import com.example.travelguide.repositories.ProfileRepository;
+import com.example.travelguide.repositories.TrendingRepository;
 import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.common.api.Status;
 import com.google.android.gms.maps.model.LatLng;
@@ -43,21 +47,20 @@ import com.google.android.libraries.places.widget.Autocomplete;
 import com.google.android.libraries.places.widget.AutocompleteActivity;
 import com.google.android.libraries.places.widget.model.AutocompleteActivityMode;
 import com.google.android.material.snackbar.Snackbar;
-import com.parse.GetCallback;
 import com.parse.ParseCloud;
 import com.parse.ParseException;
-import com.parse.ParseFile;
+import com.parse.ParseObject;
 import com.parse.ParseUser;
 
 import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
+import java.util.ArrayList;
 import java.util.HashMap;
-
-import static com.google.android.gms.common.util.IOUtils.toByteArray;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * A simple {@link Fragment} subclass.
@@ -71,12 +74,16 @@ public class ComposeFragment extends Fragment {
     private final String photoFileName = "photo.jpg";
 
     private File audioFile;
+    private MediaUploader.PendingUpload audioUpload;
     private File photoFile;
+    private HashMap<String, File> photoRenditions;
     private File videoFile;
+    private boolean transcodingVideo = false;
 
     MediaRecorder mediaRecorder;
     MediaPlayer mediaPlayer;
     private int playerPos;
+    private int audioBitRate = HelperClass.AUDIO_BIT_RATE;
 
     // Activity Result Launcher
     ActivityResultLauncher<Intent> galleryActivityLauncher;
@@ -236,7 +243,8 @@ public class ComposeFragment extends Fragment {
                             Uri takenPhotoUri = Uri.fromFile(HelperClass.getMediaFileUri(photoFileName, Environment.DIRECTORY_PICTURES, requireContext()));
 
                             // updates value of photoFile
-                            photoFile = HelperClass.getResizedImg(takenPhotoUri, getContext(), photoFileName, ivPreview, false);
+                            photoRenditions = HelperClass.getImgRenditions(takenPhotoUri, getContext(), photoFileName, ivPreview);
+                            photoFile = photoRenditions.get(Guide.getKeyPhoto());
 
                             // Bitmap takenImage = BitmapFactory.decodeFile(resizedFile.getAbsolutePath());
                             // sets other buttons to be not clickable
@@ -249,9 +257,13 @@ public class ComposeFragment extends Fragment {
 
                             // sets other file to be null
                             photoFile = null;
+                            photoRenditions = null;
 
                             // play recorded video
                             playbackRecordedVideo(result.getData().getData());
+
+                            // shrinks the recording to SD while the user writes the guide
+                            transcodeVideo(videoFile);
                         }
                     } else {
                         Snackbar noMedia = Snackbar.make(mediaBtn, "Media wasn't taken", Snackbar.LENGTH_SHORT);
@@ -273,7 +285,8 @@ public class ComposeFragment extends Fragment {
                         // gets image data from gallery
                         Uri photoUri = result.getData().getData();
 
-                        photoFile = HelperClass.getResizedImg(photoUri, getContext(), photoFileName, ivPreview, false);
+                        photoRenditions = HelperClass.getImgRenditions(photoUri, getContext(), photoFileName, ivPreview);
+                        photoFile = photoRenditions.get(Guide.getKeyPhoto());
 
                         showImgView();
                     } else {
@@ -366,6 +379,13 @@ public class ComposeFragment extends Fragment {
                 return;
             }
 
+            // if the recorded video hasn't finished transcoding
+            if (transcodingVideo) {
+                Snackbar processingVideo = Snackbar.make(etText, R.string.video_processing, Snackbar.LENGTH_SHORT);
+                HelperClass.displaySnackBarWithBottomMargin(processingVideo, 80, getActivity());
+                return;
+            }
+
             // if no location is selected
             if (location == null) {
                 Snackbar emptyLocation = Snackbar.make(etText, R.string.no_location, Snackbar.LENGTH_SHORT);
@@ -409,6 +429,13 @@ public class ComposeFragment extends Fragment {
                     // can't record again
                     recordBtn.setClickable(false);
 
+                    // starts uploading the recording while the user finishes the guide
+                    // the guide waits for this upload if it is posted before it finishes
+                    audioUpload = MediaUploader.uploadInBackground(audioFile, HelperClass.AUDIO_CONTENT_TYPE, (file, e) -> {
+                        if (e != null)
+                            Log.e(TAG, "Issue with uploading audio", e);
+                    });
+
                     // variables to play audio
                     playerPos = 0;
                     mediaPlayer = new MediaPlayer();
@@ -472,7 +499,9 @@ public class ComposeFragment extends Fragment {
             // Set the audio format and encoder
             mediaRecorder.setAudioSource(MediaRecorder.AudioSource.MIC);
             mediaRecorder.setOutputFormat(MediaRecorder.OutputFormat.MPEG_4);
-            mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AMR_NB);
+            mediaRecorder.setAudioEncoder(MediaRecorder.AudioEncoder.AAC);
+            mediaRecorder.setAudioEncodingBitRate(audioBitRate);
+            mediaRecorder.setAudioSamplingRate(HelperClass.AUDIO_SAMPLE_RATE);
             mediaRecorder.setOutputFile(audioFile.getAbsolutePath());
         }
     }
@@ -492,6 +521,51 @@ public class ComposeFragment extends Fragment {
         }
     }
 
+    // transcodes the recorded video and uploads the smaller file instead
+    private void transcodeVideo(File recordedVideo) {
+
+        if (recordedVideo == null || !recordedVideo.exists())
+            return;
+
+        File transcodedVideo = HelperClass.getMediaFileUri("sd_" + HelperClass.videoFileName, Environment.DIRECTORY_MOVIES, requireContext());
+        transcodingVideo = true;
+
+        VideoTranscoder.transcodeInBackground(recordedVideo, transcodedVideo, new VideoTranscoder.TranscodeListener() {
+            @Override
+            public void onProgress(int percent) {
+                if (isAdded()) {
+                    addBtn.setText(getString(R.string.processing_video, percent));
+                }
+            }
+
+            @Override
+            public void onComplete(File output) {
+                finishTranscode();
+
+                // only swap the file if the video is still part of the guide
+                if (videoFile == recordedVideo) {
+                    videoFile = output;
+                }
+            }
+
+            @Override
+            public void onError(Exception e) {
+                // the original recording is uploaded instead
+                Log.e(TAG, "Issue with transcoding video", e);
+                finishTranscode();
+            }
+        });
+    }
+
+    // resets the add button once the video is ready
+    private void finishTranscode() {
+        transcodingVideo = false;
+
+        if (isAdded()) {
+            addBtn.setText(R.string.add_guide);
+        }
+    }
+
     // creates intent to create a new photo or video
     private void onPickMedia(Uri photoUri, Uri videoUri) {
 
@@ -513,83 +587,136 @@ public class ComposeFragment extends Fragment {
         galleryActivityLauncher.launch(HelperClass.getGalleryIntent());
     }
 
-    // creates new Travel guide and updates it to the database
+    /*
+     * creates new Travel guide and updates it to the database
+     * the location lookup and the media uploads run in parallel and the guide and
+     * location are committed together once the slowest of them finishes
+     */
     private void saveGuide(String text, ParseUser user, File photo, File video, File audio) {
 
         final Location[] guideLocation = new Location[1];
         Guide guide = new Guide();
 
-        // saves guide after saving location
-        GetCallback<Location> composeCallback = (result, e) -> {
+        guide.setAuthor(user);
+        guide.setText(text);
+
+        // media files that still need to be uploaded keyed by the guide column they are stored in
+        HashMap<String, File> mediaFiles = new HashMap<>();
+
+        // sets the photo and video fields if they exist
+        if (photo != null) {
+            Log.i(TAG, photo.toString());
+
+            // uploads the thumb and full screen renditions alongside the feed photo
+            if (photoRenditions != null) {
+                mediaFiles.putAll(photoRenditions);
+            } else {
+                mediaFiles.put(Guide.getKeyPhoto(), photo);
+            }
+        } else if (video != null) {
+            mediaFiles.put(Guide.getKeyVideo(), video);
+            Log.i(TAG, video.toString());
+
+        } else if (audio != null) {
+
+            Log.i(TAG, audio.toString());
+
+            // the recording started uploading when it stopped, it is only uploaded here if that never happened
+            if (audioUpload == null) {
+                mediaFiles.put(Guide.getKeyAudio(), audio);
+            }
+        }
+
+        boolean hasMedia = photo != null || video != null || audio != null;
+        MediaUploader.PendingUpload recordingUpload = audio != null && photo == null && video == null ? audioUpload : null;
+
+        // one step for the location, one for each media file, one for the recording and one for the media metadata
+        AtomicInteger pendingSteps = new AtomicInteger(mediaFiles.size() + (recordingUpload != null ? 1 : 0) + (hasMedia ? 2 : 1));
+        Runnable onStepDone = () -> {
+            if (pendingSteps.decrementAndGet() == 0) {
+                publishGuide(guide, guideLocation[0]);
+            }
+        };
+
+        // size, length and BlurHash let the rows take their final size before the media loads
+        if (hasMedia) {
+            MediaMetadata.readInBackground(photo, video, audio, metadata -> {
+                metadata.applyTo(guide);
+                onStepDone.run();
+            });
+        }
+
+        // uploads the media while the location is resolved, files that were already uploaded are reused
+        for (Map.Entry<String, File> mediaFile : mediaFiles.entrySet()) {
+
+            String contentType = mediaFile.getKey().equals(Guide.getKeyAudio()) ? HelperClass.AUDIO_CONTENT_TYPE : null;
+            MediaUploader.uploadInBackground(mediaFile.getValue(), contentType, (file, e) -> {
+                // a failed upload is retried when the guide is saved
+                if (e != null)
+                    Log.e(TAG, "Issue with uploading media", e);
+
+                guide.setMedia(mediaFile.getKey(), file);
+                onStepDone.run();
+            });
+        }
+
+        // waits for the recording upload instead of starting another one, it has usually finished by now
+        if (recordingUpload != null) {
+            recordingUpload.whenDone((file, e) -> {
+                guide.setAudio(file);
+                onStepDone.run();
+            });
+        }
+
+        HelperClass.fetchLocation(location, (result, e) -> {
             if (e == null) {
                 // get location from server
                 guideLocation[0] = result;
             } else {
 
-                // if the location wasn't found add a new one
+                // if the location wasn't found add a new one, it is saved with the guide
                 if (e.getCode() == ParseException.OBJECT_NOT_FOUND) {
                     guideLocation[0] = new Location();
                     guideLocation[0].setPlaceId(placeID);
                     guideLocation[0].setCoord(location.latitude, location.longitude);
-                    guideLocation[0].saveInBackground();
+                } else {
+                    Log.e(TAG, "Issue with getting location", e);
                 }
             }
 
-            guide.setAuthor(user);
-            guide.setText(text);
-            guide.setLocation(guideLocation[0]);
-
-            // sets the photo and video fields if they exist
-            if (photo != null) {
-                guide.setPhoto(new ParseFile(photo));
-                Log.i(TAG, photo.toString());
-            } else if (video != null) {
-                guide.setVideo(new ParseFile(video));
-                Log.i(TAG, video.toString());
-
-            } else if (audio != null) {
+            onStepDone.run();
+        });
+    }
 
-                Log.i(TAG, audio.toString());
-                // Save sound using input stream
-                // ref: https://stackoverflow.com/questions/43350226/android-how-to-upload-an-audio-file-with-parse-sdk
-                byte[] soundBytes = new byte[0];
+    // saves the guide and its location in a single batch
+    private void publishGuide(Guide guide, Location guideLocation) {
 
-                InputStream inputStream = null;
-                try {
-                    inputStream = requireContext().getContentResolver().openInputStream(Uri.fromFile(audio));
-                } catch (FileNotFoundException fileNotFoundException) {
-                    fileNotFoundException.printStackTrace();
-                }
-//                soundBytes = new byte[inputStream.available()];
-                try {
-                    if (inputStream != null) {
-                        soundBytes = toByteArray(inputStream);
-                    }
-                } catch (IOException ioException) {
-                    ioException.printStackTrace();
-                }
+        List<ParseObject> batch = new ArrayList<>();
+        if (guideLocation != null) {
+            guide.setLocation(guideLocation);
+            batch.add(guideLocation);
+        }
+        batch.add(guide);
 
-                guide.setAudio(new ParseFile("audio.mp4", soundBytes));
+        // uploads new guide in the background
+        ParseObject.saveAllInBackground(batch, e -> {
+            if (e != null) {
+                Log.i(TAG, "Error while saving tag", e);
+                return;
             }
 
-            // uploads new guide in the background
-            guide.saveInBackground(e1 -> {
-                if (e1 != null) {
-                    Log.i(TAG, "Error while saving tag", e1);
-                    return;
-                }
+            // clears guide and goes back to main fragment
+            etText.setText("");
+            ivPreview.setImageResource(0);
+            getInfo();
 
-                // clears guide and goes back to main fragment
-                etText.setText("");
-                ivPreview.setImageResource(0);
-                getInfo();
+            if (guideLocation != null)
+                sendNotification(guideLocation);
 
-                sendNotification(guideLocation[0]);
-                ((MainActivity) requireActivity()).updateGuides();
-            });
-        };
-
-        HelperClass.fetchLocation(location, composeCallback);
+            // the new guide changes which locations are trending
+            TrendingRepository.getInstance().invalidate();
+            ProfileRepository.getInstance().markCreatedGuidesStale(ParseUser.getCurrentUser().getObjectId());
+        });
     }
 
     private void sendNotification(Location location1) {
@@ -659,6 +786,11 @@ public class ComposeFragment extends Fragment {
         return location;
     }
 
+    // sets the bitrate used for the next audio recording
+    public void setAudioBitRate(int bitRate) {
+        audioBitRate = bitRate;
+    }
+
     // sets the button text given String
     private void setButtonText(String newText) {
         locationBtn.setText(newText);
@@ -693,7 +825,9 @@ public class ComposeFragment extends Fragment {
     private void clearMediaVariables() {
         videoFile = null;
         audioFile = null;
+        audioUpload = null;
         photoFile = null;
+        photoRenditions = null;
         mediaPlayer = null;
         mediaRecorder = null;
     }
@@ -19,6 +19,7 @@ import com.example.travelguide.R;
 import com.example.travelguide.activities.EntryActivity;
 import com.example.travelguide.databinding.FragmentEntryBinding;
 import com.example.travelguide.helpers.HelperClass;
+import com.example.travelguide.repositories.FollowRepository;
 import com.google.android.material.snackbar.Snackbar;
 import com.parse.ParseInstallation;
 import com.parse.ParseUser;
@@ -176,6 +177,9 @@ public class EntryFormFragment extends Fragment {
 
     private void assignUser() {
         ParseInstallation.getCurrentInstallation().put("userID", ParseUser.getCurrentUser());
+
+        // loads the locations the user follows for this session
+        FollowRepository.getInstance().load();
     }
 
     // returns if the entered values are valid
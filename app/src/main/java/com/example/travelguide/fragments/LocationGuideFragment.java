@@ -7,7 +7,6 @@ import android.content.Intent;
 import android.graphics.Color;
 import android.net.Uri;
 import android.os.Bundle;
-import android.os.Parcelable;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
@@ -24,6 +23,7 @@ import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.appcompat.app.AlertDialog;
 import androidx.fragment.app.Fragment;
+import androidx.lifecycle.Observer;
 import androidx.recyclerview.widget.DefaultItemAnimator;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
@@ -33,27 +33,24 @@ import androidx.transition.TransitionInflater;
 import com.example.travelguide.R;
 import com.example.travelguide.adapters.GuidesAdapter;
 import com.example.travelguide.adapters.TopLocationAdapter;
-import com.example.travelguide.classes.Activity;
 import com.example.travelguide.classes.Guide;
 import com.example.travelguide.classes.Location;
 import com.example.travelguide.classes.OnDoubleTapListener;
 import com.example.travelguide.helpers.HelperClass;
+import com.example.travelguide.repositories.FollowRepository;
+import com.example.travelguide.repositories.GuideRepository;
+import com.example.travelguide.repositories.LiveUpdates;
+import com.example.travelguide.repositories.LocationRepository;
+import com.example.travelguide.repositories.TrendingRepository;
 import com.google.android.exoplayer2.SimpleExoPlayer;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.tasks.OnSuccessListener;
 import com.google.android.libraries.places.api.net.FetchPlaceResponse;
-import com.parse.FindCallback;
-import com.parse.FunctionCallback;
-import com.parse.ParseCloud;
 import com.parse.ParseException;
-import com.parse.ParseObject;
-import com.parse.ParseQuery;
-import com.parse.ParseUser;
 
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 
 /**
@@ -82,22 +79,34 @@ public class LocationGuideFragment extends Fragment {
     private RecyclerView rvRecommended;
     private View recommendedView;
 
-    private static final String ARG_LOC = "location";
+    private static final String ARG_LOC_ID = "location_ID";
+    private static final String ARG_PLACE_ID = "place_ID";
+    private static final String ARG_LAT = "latitude";
+    private static final String ARG_LONG = "longitude";
     private static final String ARG_FRAME = "frame_ID";
     private static final String ARG_MODAL = "in_modal";
 
     private Location parseLocation;
+    // shown for the location, so a shared instance that is only a pointer never has fields set on it here
+    private String placeID;
+    private LatLng coord;
+    private LiveUpdates.Subscription<Guide> guideSubscription;
 
     // Mandatory empty constructor for the fragment manager
     public LocationGuideFragment() {
     }
 
     @SuppressWarnings("unused")
-    public static LocationGuideFragment newInstance(Object location, int frameParam, boolean inModal) {
+    public static LocationGuideFragment newInstance(Location location, int frameParam, boolean inModal) {
         LocationGuideFragment fragment = new LocationGuideFragment();
         Bundle args = new Bundle();
 
-        args.putParcelable(ARG_LOC, (Parcelable) location);
+        // only the id is passed, the location is resolved from the repository so every screen shares one instance
+        args.putString(ARG_LOC_ID, location.getObjectId());
+        // a location that hasn't been saved yet is created again from its place and coordinates
+        args.putString(ARG_PLACE_ID, location.getPlaceID());
+        args.putDouble(ARG_LAT, location.getCoord().latitude);
+        args.putDouble(ARG_LONG, location.getCoord().longitude);
         args.putInt(ARG_FRAME, frameParam);
         args.putBoolean(ARG_MODAL, inModal);
 
@@ -110,7 +119,9 @@ public class LocationGuideFragment extends Fragment {
         // there are arguments to be gotten
         if (getArguments() != null) {
             // initializes local Parse variable
-            parseLocation = (Location) getArguments().getParcelable(ARG_LOC);
+            placeID = getArguments().getString(ARG_PLACE_ID);
+            coord = new LatLng(getArguments().getDouble(ARG_LAT), getArguments().getDouble(ARG_LONG));
+            parseLocation = getLocation(getArguments().getString(ARG_LOC_ID));
             frameParam = getArguments().getInt(ARG_FRAME);
 
             // shows expand indicator
@@ -120,6 +131,33 @@ public class LocationGuideFragment extends Fragment {
         super.onCreate(savedInstanceState);
     }
 
+    // resolves the location of the arguments
+    private Location getLocation(@Nullable String locationID) {
+
+        // a location that hasn't been saved yet only exists on this screen
+        if (locationID == null) {
+            Location location = new Location();
+            location.setPlaceId(placeID);
+            location.setCoord(coord.latitude, coord.longitude);
+            return location;
+        }
+
+        Location cached = LocationRepository.getInstance().getCachedLocation(locationID);
+        if (cached != null) {
+            return cached;
+        }
+
+        // the screen only needs the id of a saved location, the resolved instance replaces the pointer once it is loaded
+        LocationRepository.getInstance().getLocation(locationID, (location, e) -> {
+            if (e != null) {
+                Log.e(TAG, "Issue with getting location " + locationID, e);
+                return;
+            }
+            parseLocation = location;
+        });
+        return Location.createWithoutData(Location.class, locationID);
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
                              Bundle savedInstanceState) {
@@ -155,7 +193,8 @@ public class LocationGuideFragment extends Fragment {
 
         getRecommendedLocations();
 
-        queryGuides();
+        loadGuides(false);
+        subscribeToGuides();
         handleFollowBtn();
 
         setupSearchView();
@@ -170,81 +209,49 @@ public class LocationGuideFragment extends Fragment {
 
     private void getRecommendedLocations() {
 
-        // passes in the parameters for the cloud function
-        final HashMap<String, Double> trendingParams = new HashMap<>();
-
-        trendingParams.put("locationLat", parseLocation.getCoord().latitude);
-        trendingParams.put("locationLong", parseLocation.getCoord().longitude);
-
-        // Calling the cloud code function to get trending locations
-        ParseCloud.callFunctionInBackground("getTrendingLocations", trendingParams, new FunctionCallback<Object>() {
+        // observes the trending locations around this one, shared with the map and other modals
+        TrendingRepository.getInstance().getTrendingLocations(coord).observe(getViewLifecycleOwner(), new Observer<List<Location>>() {
             @Override
-            public void done(Object response, ParseException e) {
-
-                if (e != null) {
-                    Log.i(TAG, e.getMessage());
-                    return;
-                }
+            public void onChanged(List<Location> response) {
 
                 if (response != null) {
 
                     // excludes the locations that is currently being seen
-                    ArrayList<HashMap<Integer, String>> responseList = (ArrayList<HashMap<Integer, String>>) response;
-                    ArrayList<String> locationIDs = new ArrayList<>();
+                    ArrayList<Location> recommendedLocations = new ArrayList<>();
 
-                    for (int i = 0; i < responseList.size(); i++) {
-
-                        if (!(responseList.get(i).containsValue(parseLocation.getObjectId()))) {
-                            // add it to the arraylist of strings
-                            locationIDs.add(responseList.get(i).get("id"));
+                    for (Location location : response) {
+                        if (!location.getObjectId().equals(parseLocation.getObjectId())) {
+                            recommendedLocations.add(location);
                         }
                     }
 
                     // if there are surrounding locations
-                    if (locationIDs.size() > 0) {
+                    if (recommendedLocations.size() > 0) {
 
                         // shows recommended locations
                         recommendedView.setVisibility(View.VISIBLE);
 
-                        // specify what type of data we want to query - Guide.class
-                        ParseQuery<Location> query = ParseQuery.getQuery(Location.class);
-                        // include data referred by user key
-                        query.include(Guide.getKeyAuthor());
-                        // limit query to latest 20 items
-                        query.setLimit(20);
-                        // get posts that are specific to the location
-                        query.whereContainsAll("objectId", locationIDs);
-                        query.findInBackground((objects, e1) -> {
-
-                            if (e1 == null) {
-                                Log.i(TAG, String.valueOf(objects));
-
-                                //set variables for recommended locations
-                                rvRecommended.setLayoutManager(new LinearLayoutManager(requireContext(), LinearLayoutManager.HORIZONTAL, false));
-                                rvRecommended.setAdapter(new TopLocationAdapter(requireContext(), (ArrayList<Location>) objects, 1, new TopLocationAdapter.OnItemClickListener() {
-
-                                    @Override
-                                    public void onItemClick(Location location) {
-
-                                        // zooms to location and dismisses fragment
-                                        if (getParentFragment() != null) {
-
-                                            ((MapsFragment) getParentFragment()).zoomToLocation(new LatLng(location.getCoord().latitude, location.getCoord().longitude));
-
-                                            // hide bottom view
-                                            ((MapsFragment) getParentFragment()).hideModalFragment();
-                                            // shows modal view of location being selected
-                                            ((MapsFragment) getParentFragment()).setModalLocationGuideFragment(LocationGuideFragment.newInstance(location, frameParam, true));
-                                        }
-                                    }
-                                }));
-                            }
-                        });
-                    }
+                        //set variables for recommended locations
+                        rvRecommended.setLayoutManager(new LinearLayoutManager(requireContext(), LinearLayoutManager.HORIZONTAL, false));
+                        rvRecommended.setAdapter(new TopLocationAdapter(requireContext(), recommendedLocations, 1, new TopLocationAdapter.OnItemClickListener() {
 
+                            @Override
+                            public void onItemClick(Location location) {
 
-                }
+                                // zooms to location and dismisses fragment
+                                if (getParentFragment() != null) {
 
+                                    ((MapsFragment) getParentFragment()).zoomToLocation(new LatLng(location.getCoord().latitude, location.getCoord().longitude));
+
+                                    // hide bottom view
+                                    ((MapsFragment) getParentFragment()).hideModalFragment();
+                                    // shows modal view of location being selected
+                                    ((MapsFragment) getParentFragment()).setModalLocationGuideFragment(LocationGuideFragment.newInstance(location, frameParam, true));
+                                }
+                            }
+                        }));
+                    }
+                }
             }
         });
     }
@@ -292,36 +299,15 @@ public class LocationGuideFragment extends Fragment {
     }
 
     public void handleFollowBtn() {
-        // callback to follow a location
-        FindCallback<ParseObject> isFollowedCallback = (objects, e) -> {
-            if (e == null && objects.size() >= 1) {
-                setFollowBtnState(true);
-            }
-        };
-
-        // callback to unfollow a location
-        FindCallback<ParseObject> unfollowCallback = (objects, e) -> {
 
-            if (e == null && objects.size() >= 1) {
-                for (ParseObject object : objects) {
-                    try {
-                        object.delete();
-                    } catch (ParseException parseException) {
-                        parseException.printStackTrace();
-                    }
-                    object.saveInBackground();
-
-                    // update the number of followers
-                    parseLocation.setFollowers(parseLocation.getNumFollowers() - 1);
-                    parseLocation.saveInBackground();
-                }
-
-                setFollowBtnState(false);
-            }
-        };
+        // a place nobody has posted about isn't saved yet, so there is nothing to follow
+        if (parseLocation.getObjectId() == null) {
+            followBtn.setEnabled(false);
+            return;
+        }
 
-        // sets button state
-        isLocationFollowed(parseLocation, isFollowedCallback);
+        // sets button state from the follows loaded at login
+        setFollowBtnState(FollowRepository.getInstance().isFollowed(parseLocation.getObjectId()));
 
         followBtn.setOnClickListener((v -> {
 
@@ -337,8 +323,12 @@ public class LocationGuideFragment extends Fragment {
                 // Add the buttons
                 builder.setPositiveButton(R.string.yes, new DialogInterface.OnClickListener() {
                     public void onClick(DialogInterface dialog, int id) {
-                        // User clicked yes button
-                        isLocationFollowed(parseLocation, unfollowCallback);
+                        // User clicked yes button, the button is restored if the unfollow fails
+                        setFollowBtnState(false);
+                        FollowRepository.getInstance().unfollow(parseLocation, e -> {
+                            if (e != null)
+                                setFollowBtnState(true);
+                        });
                     }
                 });
 
@@ -352,23 +342,12 @@ public class LocationGuideFragment extends Fragment {
                 builder.show();
 
             } else {
-                // creates a follow row and updates button
-                Activity followActivity = new Activity();
-
-                followActivity.put(Activity.getKeyUserId(), ParseUser.getCurrentUser());
-                followActivity.put(Activity.getKeyLocId(), parseLocation);
-                followActivity.put(Activity.getKeyType(), "follow");
-                followActivity.saveInBackground(e -> {
-                    if (e == null) {
-
-                        // update the number of followers
-                        parseLocation.setFollowers(parseLocation.getNumFollowers() + 1);
-                        parseLocation.saveInBackground();
-
-                        setFollowBtnState(true);
-
-                    } else {
+                // creates a follow row, the number of followers is updated by the server
+                setFollowBtnState(true);
+                FollowRepository.getInstance().follow(parseLocation, e -> {
+                    if (e != null) {
                         Log.i(TAG, e.getMessage());
+                        setFollowBtnState(false);
                     }
                 });
             }
@@ -389,17 +368,6 @@ public class LocationGuideFragment extends Fragment {
     }
 
 
-    public void isLocationFollowed(Location location, FindCallback<ParseObject> followCallback) {
-
-        ParseQuery<ParseObject> query = ParseQuery.getQuery("Activity");
-        // only where the location exists
-        query.whereExists(Activity.getKeyLocId());
-        query.whereEqualTo(Activity.getKeyUserId(), ParseUser.getCurrentUser());
-        query.whereEqualTo(Activity.getKeyLocId(), location);
-
-        query.findInBackground(followCallback);
-    }
-
     @SuppressLint("ClickableViewAccessibility")
     public void setTitleText() {
 
@@ -407,17 +375,17 @@ public class LocationGuideFragment extends Fragment {
         OnSuccessListener<FetchPlaceResponse> textSuccess = fetchPlaceResponse -> tvAddress.setText(fetchPlaceResponse.getPlace().getName());
 
         // sets the title name based on place id
-        if (parseLocation.getPlaceID().equals(HelperClass.defaultPlaceID)) {
-            tvAddress.setText(HelperClass.getAddress(context, parseLocation.getCoord().latitude, parseLocation.getCoord().longitude));
+        if (placeID.equals(HelperClass.defaultPlaceID)) {
+            tvAddress.setText(HelperClass.getAddress(context, coord.latitude, coord.longitude));
         } else {
-            HelperClass.fetchPlacesName(textSuccess, parseLocation.getPlaceID());
+            HelperClass.fetchPlacesName(textSuccess, placeID);
         }
 
         tvAddress.setOnTouchListener(new OnDoubleTapListener(context) {
             @Override
             public void onDoubleTap(MotionEvent e) {
 
-                String queryString = String.format("google.navigation:q=%f,%f", parseLocation.getCoord().latitude, parseLocation.getCoord().longitude);
+                String queryString = String.format("google.navigation:q=%f,%f", coord.latitude, coord.longitude);
                 Uri gmmIntentUri = Uri.parse(queryString);
 
                 // creates google maps intent that will load directions for the location
@@ -468,27 +436,18 @@ public class LocationGuideFragment extends Fragment {
         swipeContainer.setRefreshing(false);
     }
 
-    // get list of guides from post server
+    // asks the server for the guides changed since the last load when the list is refreshed
     protected void queryGuides() {
+        loadGuides(true);
+    }
+
+    // get list of guides, the cached ones are shown while the server is asked
+    private void loadGuides(boolean force) {
 
-        // specify what type of data we want to query - Guide.class
-        ParseQuery<Guide> query = ParseQuery.getQuery(Guide.class);
-        // include data referred by user key
-        query.include(Guide.getKeyAuthor());
-        // limit query to latest 20 items
-        query.setLimit(50);
-        // get posts that are specific to the location
-        query.whereEqualTo("locationID", parseLocation);
-        // order posts by creation date (newest first)
-        query.addDescendingOrder("createdAt");
-
-        // start an asynchronous call for posts
-        query.findInBackground((guides, e) -> {
+        GuideRepository.getInstance().getLocationGuides(parseLocation, force, (guides, e) -> {
             // check for errors
             if (e != null) {
 
-                Log.e(TAG, "Issue with getting guides", e);
-
                 // show that the list is empty
                 if (e.getCode() == ParseException.OTHER_CAUSE)
                     showEmptyListText();
@@ -499,12 +458,44 @@ public class LocationGuideFragment extends Fragment {
             adapter.clear();
             // save received posts to list and notify adapter of new data
             adapter.addAll(guides);
-            adapter.notifyDataSetChanged();
 
             showEmptyListText();
         });
     }
 
+    // applies guides posted, edited or deleted while the location is open
+    private void subscribeToGuides() {
+
+        // a location that hasn't been saved has no guides to listen to
+        if (parseLocation.getObjectId() == null)
+            return;
+
+        guideSubscription = GuideRepository.getInstance().subscribeToLocationGuides(parseLocation, new LiveUpdates.ChangeListener<Guide>() {
+            @Override
+            public void onChanged(Guide guide) {
+                adapter.upsert(guide);
+                showEmptyListText();
+            }
+
+            @Override
+            public void onDeleted(Guide guide) {
+                adapter.remove(guide.getObjectId());
+                showEmptyListText();
+            }
+
+            @Override
+            public void onLeft(Guide guide) {
+                adapter.remove(guide.getObjectId());
+                showEmptyListText();
+            }
+
+            @Override
+            public void onReconnected() {
+                loadGuides(true);
+            }
+        });
+    }
+
     // shows empty guide text and removes progress bar
     protected void showEmptyListText() {
 
@@ -516,6 +507,18 @@ public class LocationGuideFragment extends Fragment {
         pbLoading.setVisibility(View.INVISIBLE);
     }
 
+    @Override
+    public void onDestroyView() {
+
+        // stops the changes of the location once it is closed
+        if (guideSubscription != null) {
+            guideSubscription.cancel();
+            guideSubscription = null;
+        }
+
+        super.onDestroyView();
+    }
+
     @Override
     public void onDestroy() {
 
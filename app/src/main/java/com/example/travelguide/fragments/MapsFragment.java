@@ -26,6 +26,9 @@ import com.example.travelguide.R;
 import com.example.travelguide.adapters.SearchListAdapter;
 import com.example.travelguide.helpers.DeviceDimenHelper;
 import com.example.travelguide.helpers.HelperClass;
+import com.example.travelguide.repositories.LiveUpdates;
+import com.example.travelguide.repositories.LocationRepository;
+import com.example.travelguide.repositories.TrendingRepository;
 import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
@@ -36,6 +39,7 @@ import com.google.android.gms.maps.SupportMapFragment;
 import com.google.android.gms.maps.model.BitmapDescriptorFactory;
 import com.google.android.gms.maps.model.CameraPosition;
 import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
 import com.google.android.gms.maps.model.MapStyleOptions;
 import com.google.android.gms.maps.model.Marker;
 import com.google.android.gms.maps.model.MarkerOptions;
@@ -48,11 +52,8 @@ import com.google.android.libraries.places.api.net.FetchPlaceRequest;
 import com.google.android.libraries.places.api.net.FindAutocompletePredictionsRequest;
 import com.google.android.material.bottomsheet.BottomSheetBehavior;
 import com.google.android.material.floatingactionbutton.FloatingActionButton;
-import com.parse.FunctionCallback;
 import com.parse.GetCallback;
-import com.parse.ParseCloud;
 import com.parse.ParseException;
-import com.parse.ParseQuery;
 
 import org.jetbrains.annotations.NotNull;
 
@@ -98,9 +99,12 @@ public class MapsFragment extends Fragment {
     private boolean locationPermissionGranted;
 
     // top locations data structures
-    private List<HashMap<Integer, String>> topLocations;
     private com.example.travelguide.classes.Location[] topLocationObjects;
 
+    // markers on the map by the id of their location
+    private final HashMap<String, Marker> markers = new HashMap<>();
+    private LiveUpdates.Subscription<com.example.travelguide.classes.Location> regionSubscription;
+
 
     // The geographical location where the device is currently located. That is, the last-known
     // location retrieved by the Fused Location Provider.
@@ -148,6 +152,9 @@ public class MapsFragment extends Fragment {
             getLocationPermission();
             getLocationsandGuides();
 
+            // listens to the locations of the region shown once the camera stops
+            map.setOnCameraIdleListener(() -> subscribeToRegion());
+
             // Turn on the My Location layer and the related control on the map.
             updateLocationUI();
             // Get the current location of the device and set the position of the map.
@@ -155,7 +162,7 @@ public class MapsFragment extends Fragment {
 
             map.setOnMarkerClickListener(marker -> {
 
-                locationGuideFragment = LocationGuideFragment.newInstance(marker.getTag(), fragmentsFrameId, false);
+                locationGuideFragment = LocationGuideFragment.newInstance((com.example.travelguide.classes.Location) marker.getTag(), fragmentsFrameId, false);
 
                 // Begin the transaction
                 FragmentTransaction ft = fragmentManager.beginTransaction();
@@ -174,28 +181,18 @@ public class MapsFragment extends Fragment {
     // gets top location and guides
     public void getLocationsandGuides() {
 
-        // passes in the parameters for the cloud function
-        final HashMap<String, String> trendingParams = new HashMap<>();
-        // Calling the cloud code function to get trending locations
-        ParseCloud.callFunctionInBackground("getTrendingLocations", trendingParams, new FunctionCallback<Object>() {
-            @Override
-            public void done(Object response, ParseException e) {
+        // get list of current guides
+        getGuides();
 
-                if (e != null) {
-                    Log.i(TAG, e.getMessage());
-                    return;
-                }
+        // observes the trending locations shared with the location modals
+        TrendingRepository.getInstance().getTrendingLocations(null).observe(getViewLifecycleOwner(), trendingLocations -> {
 
-                if (response != null) {
-                    Log.i(TAG, String.valueOf(response));
-
-                    topLocations = (List<HashMap<Integer, String>>) response;
-                    topLocationObjects = new com.example.travelguide.classes.Location[topLocations.size()];
-
-                    // get list of current guides
-                    getGuides(true);
-                }
+            if (trendingLocations != null) {
+                Log.i(TAG, String.valueOf(trendingLocations));
 
+                // the response already has everything the top locations sheet shows
+                topLocationObjects = trendingLocations.toArray(new com.example.travelguide.classes.Location[0]);
+                topLocationsFragment = TopLocationsFragment.newInstance(topLocationObjects);
             }
         });
     }
@@ -268,9 +265,6 @@ public class MapsFragment extends Fragment {
         height = DeviceDimenHelper.getDisplayHeightPixels(requireContext());
         width = DeviceDimenHelper.getDisplayWidthPixels(requireContext());
 
-        // initiates the trending location arraylist
-        topLocations = new ArrayList<>();
-
         initializeMap();
 
         rvSearchList.setVisibility(View.GONE);
@@ -428,51 +422,32 @@ public class MapsFragment extends Fragment {
         }
     }
 
-    // gets list of locations from the ParseServer
-    public void getGuides(boolean showModal) {
+    // gets list of locations, the cached ones are shown while the server is asked
+    public void getGuides() {
 
         // shows progress bar
         pbMaps.setVisibility(View.VISIBLE);
 
-        // clears the map of markers
-        map.clear();
-
-        ParseQuery<com.example.travelguide.classes.Location> query = ParseQuery.getQuery(com.example.travelguide.classes.Location.class);
-        query.findInBackground((locations, e) -> {
+        LocationRepository.getInstance().getAllLocations((locations, e) -> {
 
             // if there is no error
             if (e == null) {
 
-                for (int i = 0; i < locations.size(); i++) {
-
-                    // retrieves geo point from database and converts it to a LatLng Object
-                    LatLng location = locations.get(i).getCoord();
+                // clears the map of markers, the cached locations are replaced by the fetched ones
+                map.clear();
+                markers.clear();
 
-                    // add top location to the object array
-                    int pos = inTopLocations(locations.get(i));
-                    if (pos != -1) {
-                        topLocationObjects[pos] = locations.get(i);
-                    }
-
-                    // adds a new marker with the LatLng object
-                    MarkerOptions markerOptions = new MarkerOptions().position(location)
-                            .icon(BitmapDescriptorFactory.fromResource(R.drawable.marker_icon));
-                    addMarker(markerOptions, locations.get(i));
+                for (int i = 0; i < locations.size(); i++) {
+                    addMarker(locations.get(i));
                 }
 
                 // hides progress bar
                 pbMaps.setVisibility(View.INVISIBLE);
                 showOverlayBtns();
-
-                // if you are supposed to show the modal fragment
-                if (showModal) {
-                    topLocationsFragment = TopLocationsFragment.newInstance(topLocationObjects);
-                }
             } else {
                 Log.e(TAG, "Not getting guides", e);
             }
         });
-        ParseQuery.clearAllCachedResults();
     }
 
     /*
@@ -693,21 +668,6 @@ public class MapsFragment extends Fragment {
         }
     }
 
-    // check location object is trending
-    private int inTopLocations(com.example.travelguide.classes.Location location) {
-
-        if (topLocations != null) {
-
-            for (int i = 0; i < topLocations.size(); i++) {
-                // if the location is trending return true
-                if (topLocations.get(i).containsValue(location.getObjectId())) {
-                    return i;
-                }
-            }
-        }
-        return -1;
-    }
-
     public void showModalFragment(Fragment modalFragment, boolean isDraggable) {
 
         // sets sheet behavior height
@@ -782,14 +742,78 @@ public class MapsFragment extends Fragment {
     }
 
     // add new marker to the map along with tag
-    private void addMarker(MarkerOptions newMarker, com.example.travelguide.classes.Location location) {
-        Marker marker = map.addMarker(newMarker);
+    private void addMarker(com.example.travelguide.classes.Location location) {
+
+        // adds a new marker at the coordinates of the location
+        MarkerOptions markerOptions = new MarkerOptions().position(location.getCoord())
+                .icon(BitmapDescriptorFactory.fromResource(R.drawable.marker_icon));
+        Marker marker = map.addMarker(markerOptions);
 
         if (marker != null) {
             marker.setTag(location);
+            markers.put(location.getObjectId(), marker);
         }
     }
 
+    // applies the locations added, changed or deleted in the region shown instead of reloading the map
+    private void subscribeToRegion() {
+
+        if (regionSubscription != null)
+            regionSubscription.cancel();
+
+        LatLngBounds region = map.getProjection().getVisibleRegion().latLngBounds;
+
+        regionSubscription = LocationRepository.getInstance().subscribeToRegion(region, new LiveUpdates.ChangeListener<com.example.travelguide.classes.Location>() {
+            @Override
+            public void onChanged(com.example.travelguide.classes.Location location) {
+
+                // an updated location may have new coordinates
+                Marker marker = markers.get(location.getObjectId());
+                if (marker != null) {
+                    marker.setPosition(location.getCoord());
+                    marker.setTag(location);
+                } else {
+                    addMarker(location);
+                }
+            }
+
+            @Override
+            public void onDeleted(com.example.travelguide.classes.Location location) {
+
+                Marker marker = markers.remove(location.getObjectId());
+                if (marker != null)
+                    marker.remove();
+            }
+
+            // the location still exists, its marker is moved to its new coordinates
+            @Override
+            public void onLeft(com.example.travelguide.classes.Location location) {
+
+                Marker marker = markers.get(location.getObjectId());
+                if (marker != null) {
+                    marker.setPosition(location.getCoord());
+                    marker.setTag(location);
+                }
+            }
+
+            @Override
+            public void onReconnected() {
+                getGuides();
+            }
+        });
+    }
+
+    @Override
+    public void onDestroyView() {
+
+        if (regionSubscription != null) {
+            regionSubscription.cancel();
+            regionSubscription = null;
+        }
+
+        super.onDestroyView();
+    }
+
     /// close the searchview element
     public void closeSearchView() {
         searchView.clearFocus();
@@ -20,6 +20,7 @@ import com.example.travelguide.R;
 import com.example.travelguide.adapters.ProfilePagerAdapter;
 import com.example.travelguide.helpers.DeviceDimenHelper;
 import com.example.travelguide.helpers.HelperClass;
+import com.example.travelguide.repositories.ProfileRepository;
 import com.google.android.material.tabs.TabLayout;
 import com.google.android.material.tabs.TabLayoutMediator;
 import com.parse.ParseUser;
@@ -107,7 +108,11 @@ public class ProfileFragment extends Fragment {
                 parseUser = ParseUser.getCurrentUser();
                 displayUserDetails();
             } else {
-                HelperClass.fetchUser(userID, (object, e) -> {
+                // shows the cached user first when the profile was opened before
+                ProfileRepository.getInstance().getUser(userID, (object, e) -> {
+                    if (e != null || !isAdded())
+                        return;
+
                     parseUser = object;
 
                     displayUserDetails();
@@ -185,12 +190,10 @@ public class ProfileFragment extends Fragment {
     public void onResume() {
         super.onResume();
 
-        // reload data
+        // reload data, the tabs refresh their own guides
         if (parseUser != null) {
             displayUserDetails();
         }
-
-        loadViewPager();
     }
 
     public void loadViewPager() {
@@ -1,7 +1,6 @@
 package com.example.travelguide.fragments;
 
 import android.os.Bundle;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -10,18 +9,19 @@ import android.widget.ImageView;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.travelguide.R;
-import com.example.travelguide.classes.Activity;
 import com.example.travelguide.classes.Guide;
+import com.example.travelguide.helpers.EndlessRecyclerViewScrollListener;
 import com.example.travelguide.helpers.HelperClass;
-import com.parse.ParseQuery;
+import com.example.travelguide.repositories.ProfileRepository;
 import com.parse.ParseUser;
 
 import org.jetbrains.annotations.NotNull;
 
 import java.util.ArrayList;
-import java.util.Arrays;
 
 /**
  * A simple {@link Fragment} subclass.
@@ -37,6 +37,9 @@ public class ProfileGuideFragment extends LocationGuideFragment {
     private String type = "";
     private String userID = "";
 
+    // loads the next page of liked guides when the end of the list is reached
+    private EndlessRecyclerViewScrollListener scrollListener;
+
     private ArrayList<Guide> guideList;
     private ImageView imageView;
     private View expandedView;
@@ -92,44 +95,43 @@ public class ProfileGuideFragment extends LocationGuideFragment {
     public void setParseUser(String userID, View view) {
 
         if (userID != null) {
+            // the queries only need a pointer to the user
             if (ParseUser.getCurrentUser().getObjectId().equals(userID)) {
                 parseUser = ParseUser.getCurrentUser();
             } else {
-                HelperClass.fetchUser(userID, (object, e) -> parseUser = object);
+                parseUser = ParseUser.createWithoutData(ParseUser.class, userID);
             }
 
             guideList = new ArrayList<>();
             // set up guide list
             setupGuideList(view, view.getContext(), imageView, expandedView, true);
+
+            // loads the next page of liked guides when the end of the list is reached
+            if (type.equals(HelperClass.profileTabTitles[1])) {
+                scrollListener = new EndlessRecyclerViewScrollListener((LinearLayoutManager) rvGuides.getLayoutManager()) {
+                    @Override
+                    public void onLoadMore(int totalItemsCount, RecyclerView view) {
+                        if (ProfileRepository.getInstance().hasMoreLikedGuides(userID))
+                            loadMoreLikedGuides();
+                    }
+                };
+                rvGuides.addOnScrollListener(scrollListener);
+            }
         }
     }
 
+    // reloads the guides when the list is pulled to refresh
     @Override
     protected void queryGuides() {
-        if (type.equals(HelperClass.profileTabTitles[0])) {
-            queryCreatedGuides();
-        } else if (type.equals(HelperClass.profileTabTitles[1])) {
-            queryLikedGuides();
-        }
+        loadGuides(true);
     }
 
-    private void queryCreatedGuides() {
-        // specify what type of data we want to query - Guide.class
-        ParseQuery<Guide> query = ParseQuery.getQuery(Guide.class);
-        // include data referred by user key
-        query.include(Guide.getKeyAuthor());
-        // limit query to latest 20 items
-        query.setLimit(20);
-        //  where the author is the logged in user
-        query.whereEqualTo("author", parseUser);
-        // order posts by creation date (newest first)
-        query.addDescendingOrder("createdAt");
-
-        // start an asynchronous call for posts
-        query.findInBackground((guides, e) -> {
-            // check for errors
-            if (e != null) {
-                Log.e(TAG, "Issue with getting guides", e);
+    // shows the cached guides and refreshes them if they are stale, force reloads them all
+    private void loadGuides(boolean force) {
+
+        ProfileRepository.GuidesCallback callback = (guides, e) -> {
+            if (e != null || guides == null) {
+                showEmptyListText();
                 return;
             }
 
@@ -137,55 +139,30 @@ public class ProfileGuideFragment extends LocationGuideFragment {
             adapter.clear();
             // save received posts to list and notify adapter of new data
             adapter.addAll(guides);
-            adapter.notifyDataSetChanged();
 
             showEmptyListText();
-        });
-    }
-
-
-    // gets guides that user liked
-    private void queryLikedGuides() {
+        };
 
-        // specify what type of data we want to query - Guide.class
-        ParseQuery<Activity> query = ParseQuery.getQuery(Activity.class);
-
-        query.selectKeys(Arrays.asList(Activity.getKeyUserId(), Activity.getKeyType(), Activity.getKeyGuideId()));
-
-        //  where the author is the logged in user
-        query.whereEqualTo(Activity.getKeyUserId(), parseUser);
-        query.whereEqualTo(Activity.getKeyType(), "like");
+        if (type.equals(HelperClass.profileTabTitles[0])) {
+            ProfileRepository.getInstance().getCreatedGuides(parseUser, force, callback);
+        } else if (type.equals(HelperClass.profileTabTitles[1])) {
+            // starts again from the newest like
+            if (scrollListener != null)
+                scrollListener.resetState();
+            ProfileRepository.getInstance().getLikedGuides(parseUser, force, callback);
+        }
+    }
 
-        // select the guide data object referenced by the pointer
-        query.include(Activity.getKeyGuideId());
+    // adds the next page of liked guides to the end of the list
+    private void loadMoreLikedGuides() {
 
-        // order posts by creation date (newest first)
-        query.addDescendingOrder("createdAt");
-        // start an asynchronous call for posts
-        query.findInBackground((activities, e) -> {
-            // check for errors
+        ProfileRepository.getInstance().loadMoreLikedGuides(parseUser, (guides, e) -> {
             if (e != null) {
-                Log.e(TAG, "Issue with getting guides", e);
+                scrollListener.finishLoading();
                 return;
             }
 
-            guideList = new ArrayList<>();
-
-            // get guides that have been liked
-            for (Activity activity : activities) {
-
-                // only add guide that isn't null
-                if (activity.getGuide() != null)
-                    guideList.add(activity.getGuide());
-            }
-
-            // clears the adapter
-            adapter.clear();
-            // save received posts to list and notify adapter of new data
-            adapter.addAll(guideList);
-            adapter.notifyDataSetChanged();
-
-            showEmptyListText();
+            adapter.addAll(guides);
         });
     }
 
@@ -198,7 +175,9 @@ public class ProfileGuideFragment extends LocationGuideFragment {
     @Override
     public void onResume() {
         super.onResume();
-        queryGuides();
+
+        // cached guides show straight away, the repository refreshes them when stale
+        loadGuides(false);
     }
 
     public boolean isFragmentUIActive() {
@@ -13,6 +13,7 @@ import androidx.fragment.app.Fragment;
 
 import com.example.travelguide.R;
 import com.example.travelguide.activities.EntryActivity;
+import com.example.travelguide.repositories.FollowRepository;
 import com.parse.ParseUser;
 
 import org.jetbrains.annotations.NotNull;
@@ -49,6 +50,9 @@ public class SettingsFragment extends Fragment {
     // logs out the user
     private void logOutUser() {
 
+        // the next user starts without the followed locations of this one
+        FollowRepository.getInstance().clear();
+
         ParseUser.logOutInBackground(e -> {
             // creates new intent to entry page and clears history
             Intent toEntry = new Intent(getContext(), EntryActivity.class);
@@ -17,11 +17,14 @@ import com.example.travelguide.R;
 import com.example.travelguide.adapters.TopLocationAdapter;
 import com.example.travelguide.classes.Location;
 import com.example.travelguide.databinding.FragmentTopLocationsBinding;
+import com.example.travelguide.repositories.LocationRepository;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.material.bottomsheet.BottomSheetDialogFragment;
 import com.parse.ParseUser;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * A simple {@link Fragment} subclass.
@@ -35,7 +38,7 @@ public class TopLocationsFragment extends BottomSheetDialogFragment {
 
 
     private FragmentTopLocationsBinding binding;
-    private Location[] topLocations;
+    private List<String> topLocationIDs;
     private RecyclerView recyclerView;
     private TextView tvMessage;
 
@@ -51,7 +54,13 @@ public class TopLocationsFragment extends BottomSheetDialogFragment {
         final TopLocationsFragment fragment = new TopLocationsFragment();
         final Bundle args = new Bundle();
 
-        args.putParcelableArray(ARG_LOCATIONS, topLocations);
+        // only the ids are passed, the locations are resolved from the repository
+        String[] locationIDs = new String[topLocations.length];
+        for (int i = 0; i < topLocations.length; i++) {
+            locationIDs[i] = topLocations[i].getObjectId();
+        }
+
+        args.putStringArray(ARG_LOCATIONS, locationIDs);
         fragment.setArguments(args);
         return fragment;
     }
@@ -62,7 +71,7 @@ public class TopLocationsFragment extends BottomSheetDialogFragment {
 
         // get top location sarray
         if (getArguments() != null) {
-            topLocations = (Location[]) getArguments().getParcelableArray(ARG_LOCATIONS);
+            topLocationIDs = Arrays.asList(getArguments().getStringArray(ARG_LOCATIONS));
         }
 
         super.onCreate(savedInstanceState);
@@ -89,7 +98,32 @@ public class TopLocationsFragment extends BottomSheetDialogFragment {
         tvMessage = binding.tvMessage;
 
         recyclerView.setLayoutManager(new LinearLayoutManager(getContext(), LinearLayoutManager.HORIZONTAL, false));
-        recyclerView.setAdapter(new TopLocationAdapter(requireContext(), Arrays.asList(topLocations.clone()), 0, new TopLocationAdapter.OnItemClickListener() {
+
+        // the locations are resolved off the main thread, ones deleted since the list was opened are logged by the repository
+        LocationRepository.getInstance().getLocations(topLocationIDs, (topLocations, e) -> {
+
+            if (e != null || binding == null) {
+                return;
+            }
+            setupLocationList(topLocations);
+        });
+
+        // sets button to dismiss the view
+        binding.dismiss.setOnClickListener((v -> {
+
+            if (getParentFragment() != null) {
+                ((MapsFragment) getParentFragment()).hideModalFragment();
+            }
+            dismiss();
+        }));
+
+        // sets message text for the user
+        tvMessage.setText(String.format("Hey %s", ParseUser.getCurrentUser().getUsername()));
+    }
+
+    private void setupLocationList(List<Location> topLocations) {
+
+        recyclerView.setAdapter(new TopLocationAdapter(requireContext(), new ArrayList<>(topLocations), 0, new TopLocationAdapter.OnItemClickListener() {
 
             // zooms to the location
             @Override
@@ -106,18 +140,6 @@ public class TopLocationsFragment extends BottomSheetDialogFragment {
                 }
             }
         }));
-
-        // sets button to dismiss the view
-        binding.dismiss.setOnClickListener((v -> {
-
-            if (getParentFragment() != null) {
-                ((MapsFragment) getParentFragment()).hideModalFragment();
-            }
-            dismiss();
-        }));
-
-        // sets message text for the user
-        tvMessage.setText(String.format("Hey %s", ParseUser.getCurrentUser().getUsername()));
     }
 
     @Override
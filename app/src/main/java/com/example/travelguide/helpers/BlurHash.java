@@ -0,0 +1,292 @@
+package com.example.travelguide.helpers;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * encodes a photo into a short BlurHash string and decodes it back into a blurred placeholder
+ * the hash is a few dozen characters, so it is saved on the guide and shown before the media is downloaded
+ * ref: https://github.com/woltapp/blurhash/blob/master/Algorithm.md
+ */
+public class BlurHash {
+
+    private static final String TAG = "BlurHash";
+
+    private static final String CHARACTERS = "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    // components along the longer side, the shorter side gets 3
+    private static final int MAX_COMPONENTS = 4;
+    private static final int MIN_COMPONENTS = 3;
+
+    // placeholders are decoded this small and scaled up by the view, the blur hides it
+    private static final int PLACEHOLDER_DIMEN = 32;
+    private static final int MAX_CACHED_PLACEHOLDERS = 50;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // decoded placeholders by hash, rows scrolled back into view don't decode again
+    private static final LruCache<String, Bitmap> placeholders = new LruCache<>(MAX_CACHED_PLACEHOLDERS);
+
+    // interface for decoded placeholders, called on the main thread
+    public interface DecodeListener {
+        // the placeholder is null when the hash is not valid
+        void onDecoded(@Nullable Bitmap placeholder);
+    }
+
+    /**
+     * encodes a bitmap, it should be scaled down first since every component reads every pixel
+     *
+     * @param bitmap photo or video frame to encode.
+     * @return the hash, with more components along the longer side of the bitmap.
+     */
+    public static String encode(Bitmap bitmap) {
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+
+        int[] pixels = new int[width * height];
+        bitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        return encode(pixels, width, height);
+    }
+
+    // encodes ARGB pixels laid out row by row
+    static String encode(int[] pixels, int width, int height) {
+
+        int componentsX = width >= height ? MAX_COMPONENTS : MIN_COMPONENTS;
+        int componentsY = width >= height ? MIN_COMPONENTS : MAX_COMPONENTS;
+
+        float[][] factors = new float[componentsX * componentsY][];
+        for (int j = 0; j < componentsY; j++) {
+            for (int i = 0; i < componentsX; i++) {
+                float normalisation = (i == 0 && j == 0) ? 1 : 2;
+                factors[j * componentsX + i] = getFactor(pixels, width, height, i, j, normalisation);
+            }
+        }
+
+        StringBuilder hash = new StringBuilder();
+        encode83((componentsX - 1) + (componentsY - 1) * 9, 1, hash);
+
+        // the AC components are quantised relative to the largest one
+        float maximumValue;
+        if (factors.length > 1) {
+            float actualMaximumValue = 0;
+            for (int i = 1; i < factors.length; i++) {
+                for (float value : factors[i]) {
+                    actualMaximumValue = Math.max(actualMaximumValue, Math.abs(value));
+                }
+            }
+
+            int quantisedMaximumValue = (int) Math.max(0, Math.min(82, Math.floor(actualMaximumValue * 166 - 0.5)));
+            maximumValue = (quantisedMaximumValue + 1) / 166f;
+            encode83(quantisedMaximumValue, 1, hash);
+        } else {
+            maximumValue = 1;
+            encode83(0, 1, hash);
+        }
+
+        encode83(encodeDC(factors[0]), 4, hash);
+        for (int i = 1; i < factors.length; i++) {
+            encode83(encodeAC(factors[i], maximumValue), 2, hash);
+        }
+
+        return hash.toString();
+    }
+
+    /**
+     * decodes the hash into a bitmap of the given size
+     *
+     * @return the placeholder, null when the hash is not valid.
+     */
+    @Nullable
+    public static Bitmap decode(String hash, int width, int height) {
+        int[] pixels = decodePixels(hash, width, height);
+        return pixels != null ? Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888) : null;
+    }
+
+    // decodes the hash into ARGB pixels laid out row by row, null when the hash is not valid
+    @Nullable
+    static int[] decodePixels(String hash, int width, int height) {
+
+        if (hash == null || hash.length() < 6) {
+            return null;
+        }
+
+        try {
+            int sizeFlag = decode83(hash, 0, 1);
+            int componentsY = sizeFlag / 9 + 1;
+            int componentsX = sizeFlag % 9 + 1;
+
+            if (hash.length() != 4 + 2 * componentsX * componentsY) {
+                Log.d(TAG, "invalid hash length " + hash);
+                return null;
+            }
+
+            float maximumValue = (decode83(hash, 1, 2) + 1) / 166f;
+
+            float[][] colors = new float[componentsX * componentsY][];
+            colors[0] = decodeDC(decode83(hash, 2, 6));
+            for (int i = 1; i < colors.length; i++) {
+                colors[i] = decodeAC(decode83(hash, 4 + i * 2, 6 + i * 2), maximumValue);
+            }
+
+            int[] pixels = new int[width * height];
+            for (int y = 0; y < height; y++) {
+                for (int x = 0; x < width; x++) {
+
+                    float r = 0, g = 0, b = 0;
+                    for (int j = 0; j < componentsY; j++) {
+                        for (int i = 0; i < componentsX; i++) {
+                            float basis = (float) (Math.cos(Math.PI * x * i / width) * Math.cos(Math.PI * y * j / height));
+                            float[] color = colors[j * componentsX + i];
+                            r += color[0] * basis;
+                            g += color[1] * basis;
+                            b += color[2] * basis;
+                        }
+                    }
+
+                    pixels[y * width + x] = 0xff000000 | (linearToSrgb(r) << 16) | (linearToSrgb(g) << 8) | linearToSrgb(b);
+                }
+            }
+
+            return pixels;
+        } catch (IllegalArgumentException e) {
+            Log.d(TAG, "invalid hash " + hash, e);
+            return null;
+        }
+    }
+
+    /**
+     * decodes a placeholder on a background thread, or returns the cached one straight away
+     *
+     * @param hash     hash saved with the guide.
+     * @param width    width of the media, used with the height to keep its aspect ratio.
+     * @param height   height of the media.
+     * @param listener called on the main thread.
+     */
+    public static void decodeInBackground(String hash, int width, int height, DecodeListener listener) {
+
+        Bitmap cached = placeholders.get(hash);
+        if (cached != null) {
+            listener.onDecoded(cached);
+            return;
+        }
+
+        // the longer side gets the full placeholder size
+        int decodeWidth = PLACEHOLDER_DIMEN;
+        int decodeHeight = PLACEHOLDER_DIMEN;
+        if (width > 0 && height > 0) {
+            if (width >= height) {
+                decodeHeight = Math.max(1, PLACEHOLDER_DIMEN * height / width);
+            } else {
+                decodeWidth = Math.max(1, PLACEHOLDER_DIMEN * width / height);
+            }
+        }
+
+        int finalWidth = decodeWidth;
+        int finalHeight = decodeHeight;
+        executor.execute(() -> {
+
+            Bitmap placeholder = decode(hash, finalWidth, finalHeight);
+
+            mainHandler.post(() -> {
+                if (placeholder != null)
+                    placeholders.put(hash, placeholder);
+                listener.onDecoded(placeholder);
+            });
+        });
+    }
+
+    // average of the pixels weighted by the cosine basis of the component
+    private static float[] getFactor(int[] pixels, int width, int height, int i, int j, float normalisation) {
+
+        float r = 0, g = 0, b = 0;
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float basis = (float) (normalisation * Math.cos(Math.PI * i * x / width) * Math.cos(Math.PI * j * y / height));
+                int pixel = pixels[y * width + x];
+                r += basis * srgbToLinear((pixel >> 16) & 0xff);
+                g += basis * srgbToLinear((pixel >> 8) & 0xff);
+                b += basis * srgbToLinear(pixel & 0xff);
+            }
+        }
+
+        float scale = 1f / (width * height);
+        return new float[]{r * scale, g * scale, b * scale};
+    }
+
+    private static int encodeDC(float[] color) {
+        return (linearToSrgb(color[0]) << 16) + (linearToSrgb(color[1]) << 8) + linearToSrgb(color[2]);
+    }
+
+    private static int encodeAC(float[] color, float maximumValue) {
+        int quantR = quantiseAC(color[0], maximumValue);
+        int quantG = quantiseAC(color[1], maximumValue);
+        int quantB = quantiseAC(color[2], maximumValue);
+        return quantR * 19 * 19 + quantG * 19 + quantB;
+    }
+
+    static int quantiseAC(float value, float maximumValue) {
+        return (int) Math.max(0, Math.min(18, Math.floor(signPow(value / maximumValue, 0.5f) * 9 + 9.5)));
+    }
+
+    private static float[] decodeDC(int value) {
+        return new float[]{srgbToLinear(value >> 16), srgbToLinear((value >> 8) & 0xff), srgbToLinear(value & 0xff)};
+    }
+
+    private static float[] decodeAC(int value, float maximumValue) {
+        int quantR = value / (19 * 19);
+        int quantG = (value / 19) % 19;
+        int quantB = value % 19;
+        return new float[]{
+                signPow((quantR - 9) / 9f, 2) * maximumValue,
+                signPow((quantG - 9) / 9f, 2) * maximumValue,
+                signPow((quantB - 9) / 9f, 2) * maximumValue
+        };
+    }
+
+    static void encode83(int value, int length, StringBuilder hash) {
+        for (int i = 1; i <= length; i++) {
+            int digit = (value / (int) Math.pow(83, length - i)) % 83;
+            hash.append(CHARACTERS.charAt(digit));
+        }
+    }
+
+    static int decode83(String hash, int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = CHARACTERS.indexOf(hash.charAt(i));
+            if (digit == -1) {
+                throw new IllegalArgumentException("invalid character " + hash.charAt(i));
+            }
+            value = value * 83 + digit;
+        }
+        return value;
+    }
+
+    private static float srgbToLinear(int value) {
+        float v = value / 255f;
+        return v <= 0.04045f ? v / 12.92f : (float) Math.pow((v + 0.055f) / 1.055f, 2.4f);
+    }
+
+    private static int linearToSrgb(float value) {
+        float v = Math.max(0, Math.min(1, value));
+        if (v <= 0.0031308f) {
+            return (int) (v * 12.92f * 255 + 0.5f);
+        }
+        return (int) ((1.055f * Math.pow(v, 1 / 2.4f) - 0.055f) * 255 + 0.5f);
+    }
+
+    private static float signPow(float value, float exp) {
+        return Math.copySign((float) Math.pow(Math.abs(value), exp), value);
+    }
+}
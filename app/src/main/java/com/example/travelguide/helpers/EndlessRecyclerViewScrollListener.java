@@ -0,0 +1,68 @@
+package com.example.travelguide.helpers;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+
+/*
+ * asks for the next page of a list once the user scrolls close to its end
+ * ref: https://guides.codepath.com/android/Endless-Scrolling-with-AdapterViews-and-RecyclerView
+ */
+public abstract class EndlessRecyclerViewScrollListener extends RecyclerView.OnScrollListener {
+
+    // the minimum amount of items to have below the current scroll position before loading more
+    private static final int VISIBLE_THRESHOLD = 5;
+
+    private final LinearLayoutManager layoutManager;
+
+    // the total number of items after the last load
+    private int previousTotalItemCount = 0;
+    // true while waiting for the last set of data to load
+    private boolean loading = true;
+
+    public EndlessRecyclerViewScrollListener(LinearLayoutManager layoutManager) {
+        this.layoutManager = layoutManager;
+    }
+
+    @Override
+    public void onScrolled(@NonNull RecyclerView view, int dx, int dy) {
+
+        int lastVisibleItemPosition = layoutManager.findLastVisibleItemPosition();
+        int totalItemCount = layoutManager.getItemCount();
+
+        // the list was invalidated, resets back to the initial state
+        if (totalItemCount < previousTotalItemCount) {
+            previousTotalItemCount = totalItemCount;
+            if (totalItemCount == 0) {
+                loading = true;
+            }
+        }
+
+        // the item count grew, so the last load finished
+        if (loading && totalItemCount > previousTotalItemCount) {
+            loading = false;
+            previousTotalItemCount = totalItemCount;
+        }
+
+        // close to the end of the list, loads the next page
+        if (!loading && lastVisibleItemPosition + VISIBLE_THRESHOLD > totalItemCount) {
+            loading = true;
+            onLoadMore(totalItemCount, view);
+        }
+    }
+
+    // call whenever the list is reloaded from the start
+    public void resetState() {
+        previousTotalItemCount = 0;
+        loading = true;
+    }
+
+    // call when a load failed, so the next scroll tries again
+    public void finishLoading() {
+        loading = false;
+        previousTotalItemCount = layoutManager.getItemCount();
+    }
+
+    // loads the items that come after totalItemsCount
+    public abstract void onLoadMore(int totalItemsCount, RecyclerView view);
+}
@@ -34,7 +34,10 @@ import com.bumptech.glide.load.resource.bitmap.CircleCrop;
 import com.bumptech.glide.request.target.BitmapImageViewTarget;
 import com.example.travelguide.R;
 import com.example.travelguide.classes.GlideApp;
+import com.example.travelguide.classes.Guide;
 import com.example.travelguide.classes.Location;
+import com.example.travelguide.repositories.LocationRepository;
+import com.example.travelguide.repositories.UserRepository;
 import com.google.android.gms.common.api.ApiException;
 import com.google.android.gms.maps.model.LatLng;
 import com.google.android.gms.tasks.OnCompleteListener;
@@ -52,8 +55,7 @@ import com.google.android.libraries.places.api.net.PlacesClient;
 import com.google.android.material.snackbar.Snackbar;
 import com.parse.GetCallback;
 import com.parse.ParseFile;
-import com.parse.ParseGeoPoint;
-import com.parse.ParseQuery;
+import com.parse.ParsePush;
 import com.parse.ParseUser;
 
 import org.jetbrains.annotations.NotNull;
@@ -65,6 +67,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
 
 // helper functions used multiple times in the project
@@ -80,10 +83,22 @@ public class HelperClass {
 
     public static final int AVATAR_IMG_DIMEN = 1000;
 
+    // jpeg quality of uploaded images, the full screen rendition keeps more detail
+    public static final int IMG_QUALITY = 40;
+    public static final int FULL_IMG_QUALITY = 70;
+
     public static String[] profileTabTitles = {"Guides", "Liked"};
     public static final String videoFileName = "video.mp4";
+
+    // audio guides are recorded as AAC in an mp4 container
+    public static final String AUDIO_CONTENT_TYPE = "audio/mp4";
+    public static final int AUDIO_BIT_RATE = 64000;
+    public static final int AUDIO_SAMPLE_RATE = 44100;
     public static final String defaultPlaceID = "0";
 
+    // followers of a location get its notifications through this push channel
+    private static final String LOCATION_CHANNEL_PREFIX = "location_";
+
     // Set the fields to specify which types of place data to return
     // for Google places API
     public static List<Place.Field> placesFields = Arrays.asList(Place.Field.ID, Place.Field.NAME, Place.Field.LAT_LNG, Place.Field.PHOTO_METADATAS);
@@ -335,28 +350,65 @@ public class HelperClass {
 
         // loads the image differently depending on if image is rendered in profile view
         if (!inProfile) {
-            // loads bitmap into image preview
-            GlideApp.with(context).asBitmap().override(HelperClass.resizedImgDimen, HelperClass.resizedImgDimen).load(resizedBitmap)
-                    .into(new BitmapImageViewTarget(imageView) {
-                        @Override
-                        protected void setResource(Bitmap resource) {
-                            super.setResource(resource);
-                            RoundedBitmapDrawable circularBitmapDrawable = RoundedBitmapDrawableFactory.create(context.getResources(), resource);
-                            circularBitmapDrawable.setCornerRadius(HelperClass.picRadius);
-                            imageView.setImageDrawable(circularBitmapDrawable);
-                        }
-                    });
+            loadPreviewImage(resizedBitmap, context, imageView);
         } else {
             loadProfileImage(resizedBitmap, context, AVATAR_IMG_DIMEN, AVATAR_IMG_DIMEN, imageView);
         }
 
+        return writeBitmapToFile(resizedBitmap, "resized_" + photoFileName, IMG_QUALITY, context);
+    }
+
+    /*
+     * returns the thumb, feed and full size renditions of an image keyed by the Guide column
+     * they are uploaded to, the image is only decoded once and never upscaled
+     */
+    @NotNull
+    public static HashMap<String, File> getImgRenditions(Uri takenPhotoUri, Context context, String photoFileName, ImageView imageView) {
+
+        HashMap<String, File> renditions = new HashMap<>();
+
+        // get image from disk
+        Bitmap rawTakenImage = loadFromUri(takenPhotoUri, context);
+
+        Bitmap thumbBitmap = BitmapScaler.scaleToFitWidth(rawTakenImage, Math.min(rawTakenImage.getWidth(), Guide.THUMB_IMG_DIMEN));
+        Bitmap feedBitmap = BitmapScaler.scaleToFitWidth(rawTakenImage, Math.min(rawTakenImage.getWidth(), Guide.FEED_IMG_DIMEN));
+        Bitmap fullBitmap = BitmapScaler.scaleToFitWidth(rawTakenImage, Math.min(rawTakenImage.getWidth(), Guide.FULL_IMG_DIMEN));
+
+        // loads the feed rendition into image preview
+        loadPreviewImage(feedBitmap, context, imageView);
+
+        renditions.put(Guide.getKeyPhotoThumb(), writeBitmapToFile(thumbBitmap, "thumb_" + photoFileName, IMG_QUALITY, context));
+        renditions.put(Guide.getKeyPhoto(), writeBitmapToFile(feedBitmap, "resized_" + photoFileName, IMG_QUALITY, context));
+        renditions.put(Guide.getKeyPhotoFull(), writeBitmapToFile(fullBitmap, "full_" + photoFileName, FULL_IMG_QUALITY, context));
+
+        return renditions;
+    }
+
+    // loads bitmap into image preview with rounded corners
+    private static void loadPreviewImage(Bitmap bitmap, Context context, ImageView imageView) {
+        GlideApp.with(context).asBitmap().override(HelperClass.resizedImgDimen, HelperClass.resizedImgDimen).load(bitmap)
+                .into(new BitmapImageViewTarget(imageView) {
+                    @Override
+                    protected void setResource(Bitmap resource) {
+                        super.setResource(resource);
+                        RoundedBitmapDrawable circularBitmapDrawable = RoundedBitmapDrawableFactory.create(context.getResources(), resource);
+                        circularBitmapDrawable.setCornerRadius(HelperClass.picRadius);
+                        imageView.setImageDrawable(circularBitmapDrawable);
+                    }
+                });
+    }
+
+    // compresses a bitmap and writes it to a file in the pictures directory
+    @NotNull
+    private static File writeBitmapToFile(Bitmap bitmap, String fileName, int quality, Context context) {
+
         // Configure byte output stream
         ByteArrayOutputStream bytes = new ByteArrayOutputStream();
         // Compress the image further
-        resizedBitmap.compress(Bitmap.CompressFormat.JPEG, 40, bytes);
+        bitmap.compress(Bitmap.CompressFormat.JPEG, quality, bytes);
 
         // Create a new file for the resized bitmap (`getPhotoFileUri` defined above)
-        File resizedFile = getMediaFileUri("resized_" + photoFileName, Environment.DIRECTORY_PICTURES, context);
+        File resizedFile = getMediaFileUri(fileName, Environment.DIRECTORY_PICTURES, context);
         try {
             resizedFile.createNewFile();
         } catch (IOException e) {
@@ -425,18 +477,35 @@ public class HelperClass {
         return new File(mediaStorageDir.getPath() + File.separator + fileName);
     }
 
-    // returns user based on ID
+    // returns user based on ID, a cached user may be returned before the fetched one
     public static void fetchUser(String userID, GetCallback<ParseUser> callback) {
-        ParseUser user = new ParseUser();
-        user.setObjectId(userID);
-        user.fetchInBackground(callback);
+        UserRepository.getInstance().getUser(userID, callback);
     }
 
     // returns location based on LatLng object
     public static void fetchLocation(LatLng location, GetCallback<Location> callback) {
-        ParseQuery<Location> query = ParseQuery.getQuery(Location.class);
-        query.whereEqualTo(Location.getKeyCoord(), new ParseGeoPoint(location.latitude, location.longitude));
-        query.getFirstInBackground(callback);
+        LocationRepository.getInstance().findByCoord(location, callback);
+    }
+
+    // returns the push channel the followers of a location are subscribed to
+    public static String getLocationChannel(String locationID) {
+        return LOCATION_CHANNEL_PREFIX + locationID;
+    }
+
+    // subscribes this device to the new guide notifications of a location
+    public static void subscribeToLocation(String locationID) {
+        ParsePush.subscribeInBackground(getLocationChannel(locationID), e -> {
+            if (e != null)
+                Log.e(TAG, "Issue with subscribing to " + locationID, e);
+        });
+    }
+
+    // stops the new guide notifications of a location on this device
+    public static void unsubscribeFromLocation(String locationID) {
+        ParsePush.unsubscribeInBackground(getLocationChannel(locationID), e -> {
+            if (e != null)
+                Log.e(TAG, "Issue with unsubscribing from " + locationID, e);
+        });
     }
 
     /*
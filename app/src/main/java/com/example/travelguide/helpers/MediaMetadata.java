@@ -0,0 +1,148 @@
+package com.example.travelguide.helpers;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.media.MediaMetadataRetriever;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.travelguide.classes.Guide;
+
+import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * reads the size, length and BlurHash of the media of a guide before it is posted
+ * rows use them to take their final size and draw a placeholder before the media is downloaded
+ */
+public class MediaMetadata {
+
+    private static final String TAG = "MediaMetadata";
+
+    // media is scaled down to about this size before it is hashed
+    private static final int HASH_SOURCE_DIMEN = 64;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    public int width;
+    public int height;
+    public long durationMs;
+    @Nullable
+    public String blurHash;
+
+    // interface for read metadata, called on the main thread
+    public interface ReadListener {
+        // fields that couldn't be read are left at 0 or null
+        void onRead(MediaMetadata metadata);
+    }
+
+    // reads the metadata of the photo, video or audio on a background thread
+    public static void readInBackground(@Nullable File photo, @Nullable File video, @Nullable File audio, ReadListener listener) {
+
+        executor.execute(() -> {
+            MediaMetadata metadata = new MediaMetadata();
+            try {
+                if (photo != null) {
+                    metadata.readPhoto(photo);
+                } else if (video != null) {
+                    metadata.readRecording(video, true);
+                } else if (audio != null) {
+                    metadata.readRecording(audio, false);
+                }
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Issue with reading media metadata", e);
+            }
+            mainHandler.post(() -> listener.onRead(metadata));
+        });
+    }
+
+    // sets the fields that were read on the guide
+    public void applyTo(Guide guide) {
+        if (width > 0 && height > 0)
+            guide.setMediaSize(width, height);
+        if (durationMs > 0)
+            guide.setMediaDuration(durationMs);
+        if (blurHash != null)
+            guide.setBlurHash(blurHash);
+    }
+
+    private void readPhoto(File photo) {
+
+        // the bounds are read without decoding the pixels
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeFile(photo.getAbsolutePath(), options);
+
+        width = options.outWidth;
+        height = options.outHeight;
+        if (width <= 0 || height <= 0) {
+            return;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = Math.max(1, Math.min(width, height) / HASH_SOURCE_DIMEN);
+        Bitmap sampled = BitmapFactory.decodeFile(photo.getAbsolutePath(), options);
+        blurHash = encode(sampled);
+    }
+
+    // the video size is read after its rotation, so portrait recordings are taller than they are wide
+    private void readRecording(File recording, boolean isVideo) {
+
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(recording.getAbsolutePath());
+            durationMs = parse(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION));
+
+            if (!isVideo) {
+                return;
+            }
+
+            int videoWidth = (int) parse(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_WIDTH));
+            int videoHeight = (int) parse(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_HEIGHT));
+            int rotation = (int) parse(retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION));
+
+            boolean isRotated = rotation == 90 || rotation == 270;
+            width = isRotated ? videoHeight : videoWidth;
+            height = isRotated ? videoWidth : videoHeight;
+
+            // the first frame is what the player shows before it starts
+            blurHash = encode(retriever.getFrameAtTime(0));
+        } finally {
+            retriever.release();
+        }
+    }
+
+    // scales the bitmap down to the hash source size, keeping its aspect ratio
+    @Nullable
+    private static String encode(@Nullable Bitmap bitmap) {
+
+        if (bitmap == null) {
+            return null;
+        }
+
+        float scale = (float) HASH_SOURCE_DIMEN / Math.max(bitmap.getWidth(), bitmap.getHeight());
+        Bitmap scaled = scale < 1
+                ? Bitmap.createScaledBitmap(bitmap, Math.max(1, Math.round(bitmap.getWidth() * scale)), Math.max(1, Math.round(bitmap.getHeight() * scale)), true)
+                : bitmap;
+
+        String hash = BlurHash.encode(scaled);
+
+        if (scaled != bitmap)
+            scaled.recycle();
+        bitmap.recycle();
+        return hash;
+    }
+
+    private static long parse(@Nullable String value) {
+        try {
+            return value != null ? Long.parseLong(value) : 0;
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
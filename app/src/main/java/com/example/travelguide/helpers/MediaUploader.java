@@ -0,0 +1,177 @@
+package com.example.travelguide.helpers;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.parse.ParseCloud;
+import com.parse.ParseException;
+import com.parse.ParseFile;
+import com.parse.SaveCallback;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * uploads media files once per unique content
+ * files are hashed before upload and the server is asked for a file with the same hash
+ */
+public class MediaUploader {
+
+    private static final String TAG = "MediaUploader";
+
+    private static final String FIND_MEDIA_FUNCTION = "findMediaByHash";
+    private static final String REGISTER_MEDIA_FUNCTION = "registerMedia";
+    private static final int HASH_BUFFER_SIZE = 64 * 1024;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // interface for a finished upload, called on the main thread
+    public interface UploadCallback {
+        // file is never null, when e isn't null it is unsaved and will be uploaded with the object it is set on
+        void done(ParseFile file, ParseException e);
+    }
+
+    /*
+     * an upload that may still be running, callbacks added after it finished are called straight away
+     * only used on the main thread, so the callbacks don't need to be synchronized
+     */
+    public static class PendingUpload {
+
+        private final List<UploadCallback> callbacks = new ArrayList<>();
+        private boolean isDone;
+        private ParseFile file;
+        private ParseException exception;
+
+        // calls back when the upload finishes, or now if it already has
+        public void whenDone(UploadCallback callback) {
+            if (isDone) {
+                callback.done(file, exception);
+            } else {
+                callbacks.add(callback);
+            }
+        }
+
+        private void finish(ParseFile file, ParseException e) {
+            this.file = file;
+            this.exception = e;
+            isDone = true;
+
+            for (UploadCallback callback : callbacks) {
+                callback.done(file, e);
+            }
+            callbacks.clear();
+        }
+    }
+
+    /**
+     * uploads the file unless identical bytes have already been uploaded
+     *
+     * @return the upload, more callbacks can be added to it while it is running.
+     */
+    public static PendingUpload uploadInBackground(File file, String contentType, UploadCallback callback) {
+
+        PendingUpload pendingUpload = new PendingUpload();
+        pendingUpload.whenDone(callback);
+
+        // hashes the file off the main thread
+        executor.execute(() -> {
+            String hash = null;
+            try {
+                hash = hashFile(file);
+            } catch (IOException | NoSuchAlgorithmException e) {
+                Log.e(TAG, "Issue with hashing " + file, e);
+            }
+
+            final String fileHash = hash;
+            mainHandler.post(() -> {
+                if (fileHash == null) {
+                    upload(file, contentType, null, pendingUpload::finish);
+                } else {
+                    findExistingFile(file, contentType, fileHash, pendingUpload::finish);
+                }
+            });
+        });
+
+        return pendingUpload;
+    }
+
+    // asks the server for a file with the same hash
+    private static void findExistingFile(File file, String contentType, String hash, UploadCallback callback) {
+
+        final HashMap<String, String> params = new HashMap<>();
+        params.put("hash", hash);
+
+        ParseCloud.callFunctionInBackground(FIND_MEDIA_FUNCTION, params, (response, e) -> {
+
+            // reuses the existing file instead of uploading it again
+            if (e == null && response instanceof ParseFile) {
+                Log.i(TAG, "reusing uploaded file for " + file.getName());
+                callback.done((ParseFile) response, null);
+                return;
+            }
+
+            if (e != null)
+                Log.i(TAG, "Issue with finding media " + e.getMessage());
+
+            upload(file, contentType, hash, callback);
+        });
+    }
+
+    // uploads the file and registers its hash so it can be reused
+    private static void upload(File file, String contentType, String hash, UploadCallback callback) {
+
+        ParseFile parseFile = contentType != null ? new ParseFile(file, contentType) : new ParseFile(file);
+        parseFile.saveInBackground((SaveCallback) e -> {
+
+            if (e == null && hash != null) {
+                registerFile(parseFile, hash);
+            }
+
+            callback.done(parseFile, e);
+        });
+    }
+
+    // stores the hash of a newly uploaded file on the server
+    private static void registerFile(ParseFile parseFile, String hash) {
+
+        final HashMap<String, Object> params = new HashMap<>();
+        params.put("hash", hash);
+        params.put("file", parseFile);
+
+        ParseCloud.callFunctionInBackground(REGISTER_MEDIA_FUNCTION, params, (response, e) -> {
+            if (e != null)
+                Log.i(TAG, "Issue with registering media " + e.getMessage());
+        });
+    }
+
+    // returns the hex SHA-256 hash of the file content
+    public static String hashFile(File file) throws IOException, NoSuchAlgorithmException {
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        byte[] buffer = new byte[HASH_BUFFER_SIZE];
+
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        StringBuilder hash = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hash.append(String.format("%02x", b));
+        }
+        return hash.toString();
+    }
+}
@@ -0,0 +1,337 @@
+package com.example.travelguide.helpers;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.media.MediaMetadataRetriever;
+import android.media.MediaMuxer;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/*
+ * transcodes recorded videos down to SD before they are uploaded
+ * the decoder renders straight into the encoder's input surface and the audio track is copied as is,
+ * interleaved with the video by timestamp so the upload can be played while it is still downloading
+ * ref: https://android.googlesource.com/platform/cts/+/master/tests/tests/media/src/android/media/cts/ExtractDecodeEditEncodeMuxTest.java
+ */
+public class VideoTranscoder {
+
+    private static final String TAG = "VideoTranscoder";
+
+    // SD output that matches the quality the guides adapter plays back
+    private static final String OUTPUT_MIME = MediaFormat.MIMETYPE_VIDEO_AVC;
+    private static final int MAX_LONG_SIDE = 640;
+    private static final int MAX_SHORT_SIDE = 480;
+    private static final int OUTPUT_BIT_RATE = 1200000;
+    private static final int OUTPUT_FRAME_RATE = 30;
+    private static final int OUTPUT_I_FRAME_INTERVAL = 1;
+
+    // MediaFormat.KEY_ROTATION is only public from API 23, the decoder reads the same key on older versions
+    private static final String KEY_ROTATION = "rotation-degrees";
+
+    private static final long TIMEOUT_US = 10000;
+    private static final int AUDIO_BUFFER_SIZE = 256 * 1024;
+
+    private static final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    // interface for transcode progress, all callbacks are delivered on the main thread
+    public interface TranscodeListener {
+        void onProgress(int percent);
+
+        void onComplete(File output);
+
+        void onError(Exception e);
+    }
+
+    // transcodes the video on a background thread
+    public static void transcodeInBackground(File input, File output, TranscodeListener listener) {
+
+        executor.execute(() -> {
+            try {
+                transcode(input, output, percent -> mainHandler.post(() -> listener.onProgress(percent)));
+                mainHandler.post(() -> listener.onComplete(output));
+            } catch (Exception e) {
+                Log.e(TAG, "transcode failed", e);
+
+                // removes the partially written file
+                if (output.exists() && !output.delete()) {
+                    Log.d(TAG, "failed to delete " + output);
+                }
+                mainHandler.post(() -> listener.onError(e));
+            }
+        });
+    }
+
+    private interface ProgressCallback {
+        void onProgress(int percent);
+    }
+
+    private static void transcode(File input, File output, ProgressCallback progressCallback) throws IOException {
+
+        MediaExtractor videoExtractor = new MediaExtractor();
+        MediaExtractor audioExtractor = new MediaExtractor();
+        MediaCodec decoder = null;
+        MediaCodec encoder = null;
+        Surface inputSurface = null;
+        MediaMuxer muxer = null;
+        boolean muxerStarted = false;
+
+        try {
+            videoExtractor.setDataSource(input.getAbsolutePath());
+            audioExtractor.setDataSource(input.getAbsolutePath());
+
+            int videoTrack = getTrack(videoExtractor, "video/");
+            int audioTrack = getTrack(audioExtractor, "audio/");
+
+            if (videoTrack < 0) {
+                throw new IOException("no video track in " + input);
+            }
+
+            videoExtractor.selectTrack(videoTrack);
+            MediaFormat inputFormat = videoExtractor.getTrackFormat(videoTrack);
+
+            MediaFormat audioFormat = null;
+            if (audioTrack >= 0) {
+                audioExtractor.selectTrack(audioTrack);
+                audioFormat = audioExtractor.getTrackFormat(audioTrack);
+            }
+
+            long durationUs = inputFormat.containsKey(MediaFormat.KEY_DURATION) ? inputFormat.getLong(MediaFormat.KEY_DURATION) : 0;
+            int[] outputSize = getOutputSize(inputFormat.getInteger(MediaFormat.KEY_WIDTH), inputFormat.getInteger(MediaFormat.KEY_HEIGHT));
+
+            // sets up the SD encoder and the surface the decoder renders into
+            MediaFormat outputFormat = MediaFormat.createVideoFormat(OUTPUT_MIME, outputSize[0], outputSize[1]);
+            outputFormat.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatSurface);
+            outputFormat.setInteger(MediaFormat.KEY_BIT_RATE, OUTPUT_BIT_RATE);
+            outputFormat.setInteger(MediaFormat.KEY_FRAME_RATE, OUTPUT_FRAME_RATE);
+            outputFormat.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, OUTPUT_I_FRAME_INTERVAL);
+
+            encoder = MediaCodec.createEncoderByType(OUTPUT_MIME);
+            encoder.configure(outputFormat, null, null, MediaCodec.CONFIGURE_FLAG_ENCODE);
+            inputSurface = encoder.createInputSurface();
+            encoder.start();
+
+            // frames are encoded the way they were recorded and the muxer hint below rotates them on playback,
+            // a decoder given the rotation would turn them too, squashed into the unrotated encoder size
+            if (inputFormat.containsKey(KEY_ROTATION))
+                inputFormat.setInteger(KEY_ROTATION, 0);
+
+            decoder = MediaCodec.createDecoderByType(inputFormat.getString(MediaFormat.KEY_MIME));
+            decoder.configure(inputFormat, inputSurface, null, 0);
+            decoder.start();
+
+            muxer = new MediaMuxer(output.getAbsolutePath(), MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+            muxer.setOrientationHint(getRotation(input));
+
+            MediaCodec.BufferInfo decoderInfo = new MediaCodec.BufferInfo();
+            MediaCodec.BufferInfo encoderInfo = new MediaCodec.BufferInfo();
+            AudioCopier audioCopier = null;
+
+            int muxerVideoTrack = -1;
+            boolean extractorDone = false;
+            boolean decoderDone = false;
+            boolean encoderDone = false;
+            int lastPercent = -1;
+
+            while (!encoderDone) {
+
+                // feeds compressed samples into the decoder
+                if (!extractorDone) {
+                    int inputIndex = decoder.dequeueInputBuffer(TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        ByteBuffer inputBuffer = decoder.getInputBuffer(inputIndex);
+                        int size = videoExtractor.readSampleData(inputBuffer, 0);
+
+                        if (size < 0) {
+                            decoder.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            extractorDone = true;
+                        } else {
+                            decoder.queueInputBuffer(inputIndex, 0, size, videoExtractor.getSampleTime(), 0);
+                            videoExtractor.advance();
+                        }
+                    }
+                }
+
+                // renders decoded frames onto the encoder surface
+                if (!decoderDone) {
+                    int outputIndex = decoder.dequeueOutputBuffer(decoderInfo, TIMEOUT_US);
+                    if (outputIndex >= 0) {
+                        boolean render = decoderInfo.size != 0;
+                        decoder.releaseOutputBuffer(outputIndex, render);
+
+                        if ((decoderInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                            encoder.signalEndOfInputStream();
+                            decoderDone = true;
+                        }
+                    }
+                }
+
+                // writes encoded frames to the muxer
+                int encoderIndex = encoder.dequeueOutputBuffer(encoderInfo, TIMEOUT_US);
+                if (encoderIndex == MediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+
+                    // tracks can only be added before the muxer is started
+                    muxerVideoTrack = muxer.addTrack(encoder.getOutputFormat());
+                    if (audioFormat != null) {
+                        audioCopier = new AudioCopier(audioExtractor, muxer, muxer.addTrack(audioFormat));
+                    }
+                    muxer.start();
+                    muxerStarted = true;
+
+                } else if (encoderIndex >= 0) {
+                    ByteBuffer encodedData = encoder.getOutputBuffer(encoderIndex);
+
+                    // codec config is already part of the output format
+                    if ((encoderInfo.flags & MediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+                        encoderInfo.size = 0;
+                    }
+
+                    if (encoderInfo.size != 0 && muxerStarted) {
+
+                        // the audio up to this frame goes first, so the file is interleaved by time
+                        if (audioCopier != null) {
+                            audioCopier.copyUntil(encoderInfo.presentationTimeUs);
+                        }
+
+                        encodedData.position(encoderInfo.offset);
+                        encodedData.limit(encoderInfo.offset + encoderInfo.size);
+                        muxer.writeSampleData(muxerVideoTrack, encodedData, encoderInfo);
+
+                        // reports progress based on the timestamp of the last frame
+                        if (durationUs > 0) {
+                            int percent = (int) Math.min(99, encoderInfo.presentationTimeUs * 100 / durationUs);
+                            if (percent != lastPercent) {
+                                lastPercent = percent;
+                                progressCallback.onProgress(percent);
+                            }
+                        }
+                    }
+
+                    encoder.releaseOutputBuffer(encoderIndex, false);
+                    encoderDone = (encoderInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                }
+            }
+
+            // copies the audio after the last frame
+            if (audioCopier != null) {
+                audioCopier.copyUntil(Long.MAX_VALUE);
+            }
+
+            progressCallback.onProgress(100);
+        } finally {
+            videoExtractor.release();
+            audioExtractor.release();
+
+            if (decoder != null) {
+                decoder.stop();
+                decoder.release();
+            }
+            if (encoder != null) {
+                encoder.stop();
+                encoder.release();
+            }
+            if (inputSurface != null) {
+                inputSurface.release();
+            }
+            if (muxer != null) {
+                if (muxerStarted) {
+                    muxer.stop();
+                }
+                muxer.release();
+            }
+        }
+    }
+
+    // copies audio samples from the extractor to the muxer without re-encoding them
+    private static class AudioCopier {
+
+        private final MediaExtractor extractor;
+        private final MediaMuxer muxer;
+        private final int muxerTrack;
+        private final ByteBuffer buffer = ByteBuffer.allocate(AUDIO_BUFFER_SIZE);
+        private final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+        private boolean done = false;
+
+        AudioCopier(MediaExtractor extractor, MediaMuxer muxer, int muxerTrack) {
+            this.extractor = extractor;
+            this.muxer = muxer;
+            this.muxerTrack = muxerTrack;
+        }
+
+        // writes the samples up to and including the timestamp, the rest are left for the next call
+        void copyUntil(long timeUs) {
+
+            while (!done) {
+                long sampleTime = extractor.getSampleTime();
+                if (sampleTime < 0) {
+                    done = true;
+                    break;
+                }
+                if (sampleTime > timeUs) {
+                    break;
+                }
+
+                int size = extractor.readSampleData(buffer, 0);
+                if (size < 0) {
+                    done = true;
+                    break;
+                }
+
+                info.set(0, size, sampleTime, extractor.getSampleFlags());
+                muxer.writeSampleData(muxerTrack, buffer, info);
+                extractor.advance();
+            }
+        }
+    }
+
+    // returns the index of the first track with the mime prefix
+    private static int getTrack(MediaExtractor extractor, String mimePrefix) {
+
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            String mime = extractor.getTrackFormat(i).getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith(mimePrefix)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // scales the video down to fit in SD while keeping the aspect ratio, dimensions are multiples of 16
+    private static int[] getOutputSize(int width, int height) {
+
+        int longSide = Math.max(width, height);
+        int shortSide = Math.min(width, height);
+        float scale = Math.min(1f, Math.min(MAX_LONG_SIDE / (float) longSide, MAX_SHORT_SIDE / (float) shortSide));
+
+        int outputWidth = Math.max(16, Math.round(width * scale / 16) * 16);
+        int outputHeight = Math.max(16, Math.round(height * scale / 16) * 16);
+
+        return new int[]{outputWidth, outputHeight};
+    }
+
+    // returns the rotation the camera stored in the video metadata
+    private static int getRotation(File input) {
+
+        MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+        try {
+            retriever.setDataSource(input.getAbsolutePath());
+            String rotation = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_ROTATION);
+            return rotation != null ? Integer.parseInt(rotation) : 0;
+        } catch (RuntimeException e) {
+            Log.i(TAG, "no rotation metadata", e);
+            return 0;
+        } finally {
+            retriever.release();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.travelguide.repositories;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.travelguide.classes.Activity;
+import com.example.travelguide.classes.Location;
+import com.example.travelguide.helpers.HelperClass;
+import com.parse.ParseException;
+import com.parse.ParseInstallation;
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+import com.parse.ParseUser;
+import com.parse.SaveCallback;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/*
+ * ids of the locations the current user follows, loaded once per session and kept on disk
+ * follows and unfollows update the set straight away and roll it back if the server rejects them
+ */
+public class FollowRepository {
+
+    private static final String TAG = "FollowRepository";
+
+    private static final String PREFS_NAME = "followed_locations";
+    private static final String KEY_USER_ID = "userID";
+    private static final String KEY_LOCATION_IDS = "locationIDs";
+    private static final String KEY_CHANNELS = "channels";
+
+    // a user following more locations than this is not expected
+    private static final int MAX_FOLLOWS = 1000;
+
+    private static FollowRepository instance;
+
+    private final SharedPreferences preferences;
+    private final Set<String> followedLocations = new HashSet<>();
+
+    private FollowRepository(Context context) {
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        // only restores the ids saved for the user that is logged in
+        ParseUser currentUser = ParseUser.getCurrentUser();
+        if (currentUser != null && currentUser.getObjectId().equals(preferences.getString(KEY_USER_ID, null))) {
+            followedLocations.addAll(preferences.getStringSet(KEY_LOCATION_IDS, new HashSet<>()));
+        }
+    }
+
+    // must be called when the application is created
+    public static void initialize(Context context) {
+        if (instance == null) {
+            instance = new FollowRepository(context.getApplicationContext());
+        }
+    }
+
+    public static FollowRepository getInstance() {
+        return instance;
+    }
+
+    public boolean isFollowed(String locationID) {
+        return followedLocations.contains(locationID);
+    }
+
+    // replaces the set with the follows of the current user on the server
+    public void load() {
+
+        ParseUser currentUser = ParseUser.getCurrentUser();
+        if (currentUser == null) {
+            return;
+        }
+
+        ParseQuery<Activity> query = ParseQuery.getQuery(Activity.class);
+        query.whereEqualTo(Activity.getKeyUserId(), currentUser);
+        query.whereEqualTo(Activity.getKeyType(), Activity.TYPE_FOLLOW);
+        query.whereExists(Activity.getKeyLocId());
+        query.selectKeys(Collections.singletonList(Activity.getKeyLocId()));
+        query.setLimit(MAX_FOLLOWS);
+
+        query.findInBackground((follows, e) -> {
+
+            if (e != null) {
+                Log.e(TAG, "Issue with loading followed locations", e);
+                return;
+            }
+
+            followedLocations.clear();
+            for (Activity follow : follows) {
+                followedLocations.add(follow.getParseObject(Activity.getKeyLocId()).getObjectId());
+            }
+            save();
+
+            // the guides of followed locations are kept on the device
+            GuideRepository.getInstance().pinLocationGuides(followedLocations);
+
+            // keeps the push channels of this device in line with the follows
+            ParseInstallation installation = ParseInstallation.getCurrentInstallation();
+            installation.addAllUnique(KEY_CHANNELS, getChannels());
+            installation.saveInBackground();
+        });
+    }
+
+    // follows the location, the set is updated before the server responds when the location has been saved
+    public void follow(Location location, SaveCallback callback) {
+
+        // a location that hasn't been saved only gets its id from the deep save of the follow
+        String knownID = location.getObjectId();
+        if (knownID != null) {
+            followedLocations.add(knownID);
+            save();
+        }
+
+        Activity followActivity = new Activity();
+        followActivity.put(Activity.getKeyUserId(), ParseUser.getCurrentUser());
+        followActivity.put(Activity.getKeyLocId(), location);
+        followActivity.put(Activity.getKeyType(), Activity.TYPE_FOLLOW);
+
+        followActivity.saveInBackground(e -> {
+
+            if (e != null) {
+                Log.e(TAG, "Issue with following " + knownID, e);
+                if (knownID != null) {
+                    followedLocations.remove(knownID);
+                    save();
+                }
+            } else {
+                String locationID = location.getObjectId();
+                followedLocations.add(locationID);
+                save();
+                HelperClass.subscribeToLocation(locationID);
+            }
+
+            callback.done(e);
+        });
+    }
+
+    // unfollows the location, the set is updated before the server responds
+    public void unfollow(Location location, SaveCallback callback) {
+
+        String locationID = location.getObjectId();
+
+        followedLocations.remove(locationID);
+        save();
+        HelperClass.unsubscribeFromLocation(locationID);
+
+        ParseQuery<Activity> query = ParseQuery.getQuery(Activity.class);
+        query.whereEqualTo(Activity.getKeyUserId(), ParseUser.getCurrentUser());
+        query.whereEqualTo(Activity.getKeyType(), Activity.TYPE_FOLLOW);
+        query.whereEqualTo(Activity.getKeyLocId(), location);
+
+        query.findInBackground((follows, e) -> {
+
+            if (e != null) {
+                rollbackUnfollow(locationID, e, callback);
+                return;
+            }
+
+            ParseObject.deleteAllInBackground(follows, deleteError -> {
+                if (deleteError != null) {
+                    rollbackUnfollow(locationID, deleteError, callback);
+                    return;
+                }
+                callback.done(null);
+            });
+        });
+    }
+
+    // forgets the follows of the user that logged out and stops their notifications on this device
+    public void clear() {
+
+        ParseInstallation installation = ParseInstallation.getCurrentInstallation();
+        installation.removeAll(KEY_CHANNELS, getChannels());
+        installation.saveInBackground();
+
+        followedLocations.clear();
+        preferences.edit().clear().apply();
+    }
+
+    private void rollbackUnfollow(String locationID, ParseException e, SaveCallback callback) {
+
+        Log.e(TAG, "Issue with unfollowing " + locationID, e);
+
+        followedLocations.add(locationID);
+        save();
+        HelperClass.subscribeToLocation(locationID);
+
+        callback.done(e);
+    }
+
+    // returns the push channels of the followed locations
+    private List<String> getChannels() {
+
+        List<String> channels = new ArrayList<>();
+        for (String locationID : followedLocations) {
+            channels.add(HelperClass.getLocationChannel(locationID));
+        }
+        return channels;
+    }
+
+    private void save() {
+
+        ParseUser currentUser = ParseUser.getCurrentUser();
+
+        preferences.edit()
+                .putString(KEY_USER_ID, currentUser != null ? currentUser.getObjectId() : null)
+                .putStringSet(KEY_LOCATION_IDS, new HashSet<>(followedLocations))
+                .apply();
+    }
+}
@@ -0,0 +1,292 @@
+package com.example.travelguide.repositories;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.travelguide.classes.Guide;
+import com.example.travelguide.classes.Location;
+import com.parse.FindCallback;
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+import com.parse.ParseUser;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * single source of guides for every screen
+ * guides are kept in memory for the session, and pinned on the device for recent and followed locations
+ * rows show the author snapshot saved with each guide, so authors are never included
+ */
+public class GuideRepository {
+
+    private static final String TAG = "GuideRepository";
+
+    private static final int MEMORY_CACHE_SIZE = 200;
+    private static final int LOCATION_GUIDES_LIMIT = 50;
+
+    // the most guides fetched when pinning the followed locations
+    private static final int PREFETCH_LIMIT = 1000;
+
+    private static GuideRepository instance;
+
+    private final ObjectCache<Guide> guides = new ObjectCache<>(MEMORY_CACHE_SIZE);
+    // guides of each location, refreshed with only the guides changed since the last sync
+    private final SyncEngine<Guide> locationGuides = new SyncEngine<>("Guide",
+            (guide1, guide2) -> guide2.getCreatedAt().compareTo(guide1.getCreatedAt()), LOCATION_GUIDES_LIMIT);
+
+    private GuideRepository() {
+    }
+
+    public static GuideRepository getInstance() {
+        if (instance == null) {
+            instance = new GuideRepository();
+        }
+        return instance;
+    }
+
+    @Nullable
+    public Guide getCachedGuide(String guideID) {
+        return guides.get(guideID);
+    }
+
+    // stores guides that were loaded as part of another query
+    public List<Guide> cacheGuides(List<Guide> fetched) {
+        return guides.putAll(fetched);
+    }
+
+    /**
+     * returns the newest guides posted to a location
+     * guides pinned on the device are returned first, then only the guides changed or deleted since are fetched
+     *
+     * @param location location of the guides.
+     * @param force    skips the cached guides, used when the user refreshes the list.
+     * @param callback called with the cached guides and again with the fetched ones.
+     */
+    public void getLocationGuides(Location location, boolean force, FindCallback<Guide> callback) {
+
+        // a location that hasn't been saved has no guides yet
+        if (location.getObjectId() == null) {
+            callback.done(new ArrayList<>(), null);
+            return;
+        }
+
+        String scope = location.getObjectId();
+
+        if (locationGuides.hasSynced(scope)) {
+            if (!force)
+                callback.done(locationGuides.getObjects(scope), null);
+            syncLocationGuides(location, callback);
+            return;
+        }
+
+        long syncedAt = OfflineStore.getInstance().getSyncedAt(OfflineStore.getGuidesPin(scope));
+        if (syncedAt == 0) {
+            fetchLocationGuides(location, callback);
+            return;
+        }
+
+        // the pinned guides are shown straight away and start the sync from when they were pinned
+        ParseQuery<Guide> query = getLocationGuidesQuery(location);
+        query.fromPin(OfflineStore.getGuidesPin(scope));
+
+        query.findInBackground((pinned, e) -> {
+
+            if (e != null) {
+                Log.e(TAG, "Issue with getting pinned guides", e);
+                fetchLocationGuides(location, callback);
+                return;
+            }
+
+            List<Guide> seeded = locationGuides.seed(scope, pinned, syncedAt);
+            if (!force)
+                callback.done(cacheGuides(seeded), null);
+
+            // pins older than the tombstones kept by the server are fetched again in full
+            if (locationGuides.hasSynced(scope)) {
+                syncLocationGuides(location, callback);
+            } else {
+                fetchLocationGuides(location, callback);
+            }
+        });
+    }
+
+    // fetches every guide of the location, the result starts its sync
+    private void fetchLocationGuides(Location location, FindCallback<Guide> callback) {
+
+        String scope = location.getObjectId();
+
+        ParseQuery<Guide> query = getLocationGuidesQuery(location);
+        // limit query to latest 50 items
+        query.setLimit(LOCATION_GUIDES_LIMIT);
+        // order posts by creation date (newest first)
+        query.addDescendingOrder(Guide.getKeyCreationDate());
+
+        FindCallback<Guide> pinningCallback = getPinningCallback(OfflineStore.getGuidesPin(scope), callback);
+        query.findInBackground((fetched, e) -> {
+            if (e == null)
+                fetched = locationGuides.seed(scope, fetched);
+            pinningCallback.done(fetched, e);
+        });
+    }
+
+    // fetches the guides changed or deleted since the last sync, tombstones of guides are written with the id of their location
+    private void syncLocationGuides(Location location, FindCallback<Guide> callback) {
+
+        String scope = location.getObjectId();
+        locationGuides.sync(scope, scope, () -> getLocationGuidesQuery(location), getPinningCallback(OfflineStore.getGuidesPin(scope), callback));
+    }
+
+    /**
+     * passes on the guides posted, edited or deleted at the location while it is open
+     * the changes are also applied to the synced and pinned guides of the location
+     *
+     * @param location location of the guides.
+     * @param listener called with every change.
+     * @return the subscription to cancel when the location is closed.
+     */
+    public LiveUpdates.Subscription<Guide> subscribeToLocationGuides(Location location, LiveUpdates.ChangeListener<Guide> listener) {
+
+        String scope = location.getObjectId();
+        String pin = OfflineStore.getGuidesPin(scope);
+
+        return LiveUpdates.getInstance().subscribe(getLocationGuidesQuery(location), new LiveUpdates.ChangeListener<Guide>() {
+            @Override
+            public void onChanged(Guide guide) {
+                locationGuides.put(scope, guide);
+                OfflineStore.getInstance().addToPin(pin, guide);
+                listener.onChanged(guides.put(guide));
+            }
+
+            @Override
+            public void onDeleted(Guide guide) {
+                locationGuides.remove(scope, guide.getObjectId());
+                OfflineStore.getInstance().removeFromPin(pin, guide);
+                guides.remove(guide.getObjectId());
+                listener.onDeleted(guide);
+            }
+
+            // the guide was moved to another location, it no longer belongs to the guides of this one but stays cached
+            @Override
+            public void onLeft(Guide guide) {
+                locationGuides.remove(scope, guide.getObjectId());
+                OfflineStore.getInstance().removeFromPin(pin, guide);
+                listener.onLeft(guides.put(guide));
+            }
+
+            @Override
+            public void onReconnected() {
+                listener.onReconnected();
+            }
+        });
+    }
+
+    private static ParseQuery<Guide> getLocationGuidesQuery(Location location) {
+
+        // specify what type of data we want to query - Guide.class
+        ParseQuery<Guide> query = ParseQuery.getQuery(Guide.class);
+        // get posts that are specific to the location
+        query.whereEqualTo(Guide.getKeyLocation(), location);
+        return query;
+    }
+
+    /**
+     * returns the newest guides posted by a user
+     *
+     * @param author     author of the guides.
+     * @param limit      the most guides returned.
+     * @param newerThan  only guides created after this date, null for the newest guides.
+     * @param callback   called with the guides.
+     */
+    public void getCreatedGuides(ParseUser author, int limit, @Nullable Date newerThan, FindCallback<Guide> callback) {
+
+        // specify what type of data we want to query - Guide.class
+        ParseQuery<Guide> query = ParseQuery.getQuery(Guide.class);
+        query.setLimit(limit);
+        //  where the author is the given user
+        query.whereEqualTo(Guide.getKeyAuthor(), author);
+        // only guides posted since the last refresh
+        if (newerThan != null)
+            query.whereGreaterThan(Guide.getKeyCreationDate(), newerThan);
+        // order posts by creation date (newest first)
+        query.addDescendingOrder(Guide.getKeyCreationDate());
+
+        query.findInBackground(getCachingCallback(callback));
+    }
+
+    // stores the fetched guides before passing them on
+    private FindCallback<Guide> getCachingCallback(FindCallback<Guide> callback) {
+
+        return (fetched, e) -> {
+
+            if (e != null) {
+                Log.e(TAG, "Issue with getting guides", e);
+                callback.done(null, e);
+                return;
+            }
+
+            callback.done(cacheGuides(fetched), null);
+        };
+    }
+
+    // also replaces the guides pinned for offline use with the fetched ones
+    private FindCallback<Guide> getPinningCallback(String pin, FindCallback<Guide> callback) {
+
+        return getCachingCallback((fetched, e) -> {
+            if (e == null)
+                OfflineStore.getInstance().replacePin(pin, fetched);
+            callback.done(fetched, e);
+        });
+    }
+
+    /**
+     * pins the newest guides of followed locations that aren't on the device yet, so they open offline
+     *
+     * @param locationIDs ids of the followed locations.
+     */
+    public void pinLocationGuides(Collection<String> locationIDs) {
+
+        List<Location> missing = new ArrayList<>();
+        for (String locationID : locationIDs) {
+            if (OfflineStore.getInstance().getSyncedAt(OfflineStore.getGuidesPin(locationID)) == 0)
+                missing.add(ParseObject.createWithoutData(Location.class, locationID));
+        }
+
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        // one query for every location, split by location afterwards
+        ParseQuery<Guide> query = ParseQuery.getQuery(Guide.class);
+        query.whereContainedIn(Guide.getKeyLocation(), missing);
+        query.addDescendingOrder(Guide.getKeyCreationDate());
+        query.setLimit(PREFETCH_LIMIT);
+
+        query.findInBackground((fetched, e) -> {
+
+            if (e != null) {
+                Log.e(TAG, "Issue with prefetching guides of followed locations", e);
+                return;
+            }
+
+            HashMap<String, List<Guide>> guidesByLocation = new HashMap<>();
+            for (Location location : missing) {
+                guidesByLocation.put(location.getObjectId(), new ArrayList<>());
+            }
+
+            for (Guide guide : cacheGuides(fetched)) {
+                List<Guide> pinned = guidesByLocation.get(guide.getParseObject(Guide.getKeyLocation()).getObjectId());
+                if (pinned != null && pinned.size() < LOCATION_GUIDES_LIMIT)
+                    pinned.add(guide);
+            }
+
+            for (String locationID : guidesByLocation.keySet()) {
+                OfflineStore.getInstance().replacePin(OfflineStore.getGuidesPin(locationID), guidesByLocation.get(locationID));
+            }
+        });
+    }
+}
@@ -0,0 +1,182 @@
+package com.example.travelguide.repositories;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.travelguide.R;
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+import com.parse.livequery.LiveQueryException;
+import com.parse.livequery.ParseLiveQueryClient;
+import com.parse.livequery.ParseLiveQueryClientCallbacks;
+import com.parse.livequery.SubscriptionHandling;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * LiveQuery subscriptions of the open screens, events are passed on to the main thread
+ * the socket is reconnected after it drops and subscribers catch up on what they missed with a sync
+ */
+public class LiveUpdates implements ParseLiveQueryClientCallbacks {
+
+    private static final String TAG = "LiveUpdates";
+
+    private static final long MIN_RECONNECT_DELAY_MS = 1000;
+    private static final long MAX_RECONNECT_DELAY_MS = 60 * 1000;
+
+    private static LiveUpdates instance;
+
+    private final ParseLiveQueryClient client;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Subscription<?>> subscriptions = new ArrayList<>();
+
+    private long reconnectDelay = MIN_RECONNECT_DELAY_MS;
+    private boolean wasConnected = false;
+
+    // interface for the changes of the objects matching a subscription, called on the main thread
+    public interface ChangeListener<T extends ParseObject> {
+        // the object was created, updated or moved into the subscription
+        void onChanged(T object);
+
+        // the object was deleted
+        void onDeleted(T object);
+
+        // the object was changed so it no longer matches the subscription, it still exists
+        void onLeft(T object);
+
+        // events sent while the socket was down are lost, so the subscriber syncs again
+        void onReconnected();
+    }
+
+    public static class Subscription<T extends ParseObject> {
+
+        private final ParseQuery<T> query;
+        private final SubscriptionHandling<T> handling;
+        private final ChangeListener<T> listener;
+
+        private Subscription(ParseQuery<T> query, SubscriptionHandling<T> handling, ChangeListener<T> listener) {
+            this.query = query;
+            this.handling = handling;
+            this.listener = listener;
+        }
+
+        // stops the events, must be called when the screen goes away
+        public void cancel() {
+            getInstance().unsubscribe(this);
+        }
+    }
+
+    private LiveUpdates(URI serverUri) {
+        // the url isn't derived from the REST server, Back4App serves LiveQuery on the app's own subdomain
+        client = ParseLiveQueryClient.Factory.getClient(serverUri);
+        client.registerListener(this);
+    }
+
+    // connects to the LiveQuery server in the resources, called once Parse is initialized
+    public static void initialize(Context context) {
+        if (instance == null) {
+            instance = new LiveUpdates(URI.create(context.getString(R.string.live_query_url)));
+        }
+    }
+
+    public static LiveUpdates getInstance() {
+        return instance;
+    }
+
+    /**
+     * subscribes to the objects matching the query, only its constraints are used by the server
+     *
+     * @param query    objects to receive the changes of.
+     * @param listener called on the main thread for every change.
+     * @return the subscription to cancel when the changes aren't needed anymore.
+     */
+    <T extends ParseObject> Subscription<T> subscribe(ParseQuery<T> query, ChangeListener<T> listener) {
+
+        SubscriptionHandling<T> handling = client.subscribe(query);
+        Subscription<T> subscription = new Subscription<>(query, handling, listener);
+        subscriptions.add(subscription);
+
+        handling.handleEvents((eventQuery, event, object) -> mainHandler.post(() -> {
+
+            // the subscription may have been cancelled while the event was posted
+            if (!subscriptions.contains(subscription)) {
+                return;
+            }
+
+            switch (event) {
+                case CREATE:
+                case ENTER:
+                case UPDATE:
+                    listener.onChanged(object);
+                    break;
+                case DELETE:
+                    listener.onDeleted(object);
+                    break;
+                case LEAVE:
+                    listener.onLeft(object);
+                    break;
+            }
+        }));
+
+        handling.handleError((errorQuery, exception) -> Log.e(TAG, "Issue with subscription", exception));
+
+        return subscription;
+    }
+
+    private <T extends ParseObject> void unsubscribe(Subscription<T> subscription) {
+        if (subscriptions.remove(subscription)) {
+            client.unsubscribe(subscription.query, subscription.handling);
+        }
+    }
+
+    @Override
+    public void onLiveQueryClientConnected(ParseLiveQueryClient client) {
+
+        mainHandler.post(() -> {
+
+            reconnectDelay = MIN_RECONNECT_DELAY_MS;
+
+            // the first connection has nothing to catch up on
+            if (wasConnected) {
+                for (Subscription<?> subscription : new ArrayList<>(subscriptions)) {
+                    subscription.listener.onReconnected();
+                }
+            }
+            wasConnected = true;
+        });
+    }
+
+    @Override
+    public void onLiveQueryClientDisconnected(ParseLiveQueryClient client, boolean userInitiated) {
+        if (!userInitiated)
+            scheduleReconnect();
+    }
+
+    @Override
+    public void onLiveQueryError(ParseLiveQueryClient client, LiveQueryException reason) {
+        Log.e(TAG, "Issue with LiveQuery", reason);
+    }
+
+    @Override
+    public void onSocketError(ParseLiveQueryClient client, Throwable reason) {
+        Log.e(TAG, "Issue with LiveQuery socket", reason);
+        scheduleReconnect();
+    }
+
+    // reconnects with a growing delay while the server can't be reached
+    private void scheduleReconnect() {
+
+        mainHandler.post(() -> {
+
+            mainHandler.removeCallbacksAndMessages(client);
+            mainHandler.postAtTime(client::reconnect, client, SystemClock.uptimeMillis() + reconnectDelay);
+
+            reconnectDelay = Math.min(reconnectDelay * 2, MAX_RECONNECT_DELAY_MS);
+        });
+    }
+}
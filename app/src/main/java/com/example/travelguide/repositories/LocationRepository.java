@@ -0,0 +1,328 @@
+package com.example.travelguide.repositories;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.travelguide.classes.Location;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.android.gms.maps.model.LatLngBounds;
+import com.parse.FindCallback;
+import com.parse.GetCallback;
+import com.parse.ParseException;
+import com.parse.ParseGeoPoint;
+import com.parse.ParseQuery;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+/*
+ * single source of locations for every screen
+ * locations are kept in memory for the session and pinned on the device for the map
+ */
+public class LocationRepository {
+
+    private static final String TAG = "LocationRepository";
+
+    private static final int MEMORY_CACHE_SIZE = 500;
+
+    private static final String ALL_LOCATIONS_SCOPE = "all";
+    private static final String KEY_OBJECT_ID = "objectId";
+
+    private static LocationRepository instance;
+
+    private final ObjectCache<Location> locations = new ObjectCache<>(MEMORY_CACHE_SIZE);
+    // every location on the map, refreshed with only the locations changed since the last sync
+    private final SyncEngine<Location> allLocations = new SyncEngine<>("Location", null, Integer.MAX_VALUE);
+    // ids of locations that have been looked up by coordinates
+    private final HashMap<String, String> idsByCoord = new HashMap<>();
+
+    private LocationRepository() {
+    }
+
+    public static LocationRepository getInstance() {
+        if (instance == null) {
+            instance = new LocationRepository();
+        }
+        return instance;
+    }
+
+    // returns the instance of the location every screen shares when it is in memory
+    @Nullable
+    public Location getCachedLocation(String locationID) {
+        return locations.get(locationID);
+    }
+
+    /**
+     * resolves locations by id, from memory first, then from the ones pinned on the device and then from the server
+     *
+     * @param locationIDs ids of the locations.
+     * @param callback    called with the locations that were found in the order of the ids, ids that
+     *                    no longer exist are left out and logged, the error is only set when none were found.
+     */
+    public void getLocations(List<String> locationIDs, FindCallback<Location> callback) {
+
+        List<String> missing = getMissingIDs(locationIDs);
+        if (missing.isEmpty()) {
+            callback.done(getCachedLocations(locationIDs), null);
+            return;
+        }
+
+        ParseQuery<Location> localQuery = ParseQuery.getQuery(Location.class);
+        localQuery.fromLocalDatastore();
+        localQuery.whereContainedIn(KEY_OBJECT_ID, missing);
+
+        localQuery.findInBackground((pinned, e) -> {
+
+            if (e == null)
+                cacheLocations(pinned);
+
+            List<String> notPinned = getMissingIDs(locationIDs);
+            if (notPinned.isEmpty()) {
+                callback.done(getCachedLocations(locationIDs), null);
+                return;
+            }
+
+            ParseQuery<Location> query = ParseQuery.getQuery(Location.class);
+            query.whereContainedIn(KEY_OBJECT_ID, notPinned);
+
+            query.findInBackground((fetched, e2) -> {
+
+                if (e2 != null) {
+                    Log.e(TAG, "Issue with getting locations " + notPinned, e2);
+                } else {
+                    cacheLocations(fetched);
+                }
+
+                List<String> notFound = getMissingIDs(locationIDs);
+                if (!notFound.isEmpty())
+                    Log.w(TAG, "locations not found " + notFound);
+
+                List<Location> found = getCachedLocations(locationIDs);
+                callback.done(found, found.isEmpty() && e2 != null ? e2 : null);
+            });
+        });
+    }
+
+    // resolves a single location, the error code is OBJECT_NOT_FOUND when it no longer exists
+    public void getLocation(String locationID, GetCallback<Location> callback) {
+
+        getLocations(Collections.singletonList(locationID), (found, e) -> {
+            if (e != null) {
+                callback.done(null, e);
+            } else if (found.isEmpty()) {
+                callback.done(null, new ParseException(ParseException.OBJECT_NOT_FOUND, "location " + locationID + " not found"));
+            } else {
+                callback.done(found.get(0), null);
+            }
+        });
+    }
+
+    private List<String> getMissingIDs(List<String> locationIDs) {
+
+        List<String> missing = new ArrayList<>();
+        for (String locationID : locationIDs) {
+            if (locations.get(locationID) == null)
+                missing.add(locationID);
+        }
+        return missing;
+    }
+
+    private List<Location> getCachedLocations(List<String> locationIDs) {
+
+        List<Location> cached = new ArrayList<>();
+        for (String locationID : locationIDs) {
+            Location location = locations.get(locationID);
+            if (location != null)
+                cached.add(location);
+        }
+        return cached;
+    }
+
+    // stores locations that were loaded as part of another query
+    public List<Location> cacheLocations(List<Location> fetched) {
+
+        for (Location location : fetched) {
+            idsByCoord.put(getCoordKey(location.getCoord()), location.getObjectId());
+        }
+        return locations.putAll(fetched);
+    }
+
+    /**
+     * returns the location at the coordinates, the error code is OBJECT_NOT_FOUND when there is none
+     * the server is asked first so a location isn't created twice, the pinned locations are used when offline
+     *
+     * @param coord    coordinates of the location.
+     * @param callback called with the location.
+     */
+    public void findByCoord(LatLng coord, GetCallback<Location> callback) {
+
+        String cachedID = idsByCoord.get(getCoordKey(coord));
+        Location cached = cachedID != null ? locations.get(cachedID) : null;
+
+        if (cached != null) {
+            callback.done(cached, null);
+            return;
+        }
+
+        getCoordQuery(coord).getFirstInBackground((location, e) -> {
+
+            if (e != null && e.getCode() == ParseException.CONNECTION_FAILED) {
+                ParseQuery<Location> localQuery = getCoordQuery(coord);
+                localQuery.fromLocalDatastore();
+                localQuery.getFirstInBackground(getCoordCallback(coord, callback));
+                return;
+            }
+
+            getCoordCallback(coord, callback).done(location, e);
+        });
+    }
+
+    private static ParseQuery<Location> getCoordQuery(LatLng coord) {
+        ParseQuery<Location> query = ParseQuery.getQuery(Location.class);
+        query.whereEqualTo(Location.getKeyCoord(), new ParseGeoPoint(coord.latitude, coord.longitude));
+        return query;
+    }
+
+    private GetCallback<Location> getCoordCallback(LatLng coord, GetCallback<Location> callback) {
+
+        return (location, e) -> {
+
+            if (e == null) {
+                idsByCoord.put(getCoordKey(coord), location.getObjectId());
+                location = locations.put(location);
+            }
+
+            callback.done(location, e);
+        };
+    }
+
+    /**
+     * returns every location for the map, the pinned ones first and then the ones from the server
+     * once the locations have been fetched, refreshes only ask for the ones changed or deleted since
+     *
+     * @param callback called with the pinned locations and again with the fetched ones.
+     */
+    public void getAllLocations(FindCallback<Location> callback) {
+
+        if (allLocations.hasSynced(ALL_LOCATIONS_SCOPE)) {
+            callback.done(allLocations.getObjects(ALL_LOCATIONS_SCOPE), null);
+            syncAllLocations(callback);
+            return;
+        }
+
+        long syncedAt = OfflineStore.getInstance().getSyncedAt(OfflineStore.PIN_LOCATIONS);
+        if (syncedAt == 0) {
+            fetchAllLocations(callback);
+            return;
+        }
+
+        // the pinned locations are shown straight away and start the sync from when they were pinned
+        ParseQuery<Location> query = ParseQuery.getQuery(Location.class);
+        query.fromPin(OfflineStore.PIN_LOCATIONS);
+
+        query.findInBackground((pinned, e) -> {
+
+            if (e != null) {
+                Log.e(TAG, "Issue with getting pinned locations", e);
+                fetchAllLocations(callback);
+                return;
+            }
+
+            callback.done(cacheLocations(allLocations.seed(ALL_LOCATIONS_SCOPE, pinned, syncedAt)), null);
+
+            // pins older than the tombstones kept by the server are fetched again in full
+            if (allLocations.hasSynced(ALL_LOCATIONS_SCOPE)) {
+                syncAllLocations(callback);
+            } else {
+                fetchAllLocations(callback);
+            }
+        });
+    }
+
+    // fetches every location, the result starts the sync of the map
+    private void fetchAllLocations(FindCallback<Location> callback) {
+
+        FindCallback<Location> pinningCallback = getPinningCallback(callback);
+        ParseQuery.getQuery(Location.class).findInBackground((fetched, e) -> {
+            if (e == null)
+                fetched = allLocations.seed(ALL_LOCATIONS_SCOPE, fetched);
+            pinningCallback.done(fetched, e);
+        });
+    }
+
+    // fetches the locations changed or deleted since the last sync
+    private void syncAllLocations(FindCallback<Location> callback) {
+        allLocations.sync(ALL_LOCATIONS_SCOPE, null, () -> ParseQuery.getQuery(Location.class), getPinningCallback(callback));
+    }
+
+    /**
+     * passes on the locations added, changed or deleted in a region of the map while it is shown
+     * the changes are also applied to the synced and pinned locations
+     *
+     * @param region   bounds of the region.
+     * @param listener called with every change.
+     * @return the subscription to cancel when the region is left.
+     */
+    public LiveUpdates.Subscription<Location> subscribeToRegion(LatLngBounds region, LiveUpdates.ChangeListener<Location> listener) {
+
+        ParseQuery<Location> query = ParseQuery.getQuery(Location.class);
+        query.whereWithinGeoBox(Location.getKeyCoord(),
+                new ParseGeoPoint(region.southwest.latitude, region.southwest.longitude),
+                new ParseGeoPoint(region.northeast.latitude, region.northeast.longitude));
+
+        return LiveUpdates.getInstance().subscribe(query, new LiveUpdates.ChangeListener<Location>() {
+            @Override
+            public void onChanged(Location location) {
+                allLocations.put(ALL_LOCATIONS_SCOPE, location);
+                OfflineStore.getInstance().addToPin(OfflineStore.PIN_LOCATIONS, location);
+                listener.onChanged(cacheLocations(Collections.singletonList(location)).get(0));
+            }
+
+            @Override
+            public void onDeleted(Location location) {
+                allLocations.remove(ALL_LOCATIONS_SCOPE, location.getObjectId());
+                OfflineStore.getInstance().removeFromPin(OfflineStore.PIN_LOCATIONS, location);
+                locations.remove(location.getObjectId());
+                listener.onDeleted(location);
+            }
+
+            // the location moved out of the region, it is still one of the locations of the map
+            @Override
+            public void onLeft(Location location) {
+                allLocations.put(ALL_LOCATIONS_SCOPE, location);
+                OfflineStore.getInstance().addToPin(OfflineStore.PIN_LOCATIONS, location);
+                listener.onLeft(cacheLocations(Collections.singletonList(location)).get(0));
+            }
+
+            @Override
+            public void onReconnected() {
+                listener.onReconnected();
+            }
+        });
+    }
+
+    // stores the fetched locations and pins them for offline use before passing them on
+    private FindCallback<Location> getPinningCallback(FindCallback<Location> callback) {
+
+        return (fetched, e) -> {
+
+            if (e != null) {
+                Log.e(TAG, "Issue with getting locations", e);
+                callback.done(null, e);
+                return;
+            }
+
+            OfflineStore.getInstance().replacePin(OfflineStore.PIN_LOCATIONS, fetched);
+            callback.done(cacheLocations(fetched), null);
+        };
+    }
+
+    // coordinates are stored as given, so exact matches are enough
+    private static String getCoordKey(LatLng coord) {
+        return String.format(Locale.US, "%f,%f", coord.latitude, coord.longitude);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.travelguide.repositories;
+
+import android.util.Log;
+import android.util.LruCache;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.parse.ParseObject;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * identity map for one Parse class, every screen gets the same instance for an objectId
+ * the most recently used objects are held by an LRU, the rest stay reachable while a screen still uses them
+ *
+ * the instances themselves are made unique by the local datastore enabled in ParseApplication,
+ * with it on Parse decodes every query result into the instance it already holds for the objectId
+ * and merges the fetched fields into it, so a fetch updates the object screens already show
+ * this cache only keeps those instances reachable, it doesn't merge anything itself
+ */
+class ObjectCache<T extends ParseObject> {
+
+    private static final String TAG = "ObjectCache";
+
+    private final LruCache<String, T> recentObjects;
+    private final HashMap<String, WeakReference<T>> identityMap = new HashMap<>();
+    private final ReferenceFactory<T> references;
+
+    // creates the references objects are still reachable through after the LRU drops them
+    interface ReferenceFactory<T> {
+        WeakReference<T> create(T object);
+    }
+
+    ObjectCache(int maxSize) {
+        this(maxSize, WeakReference::new);
+    }
+
+    // tests pass references they can clear instead of waiting for the garbage collector
+    @VisibleForTesting
+    ObjectCache(int maxSize, ReferenceFactory<T> references) {
+        recentObjects = new LruCache<>(maxSize);
+        this.references = references;
+    }
+
+    // returns the cached instance of the object
+    @Nullable
+    synchronized T get(String objectId) {
+
+        T object = recentObjects.get(objectId);
+        if (object != null) {
+            return object;
+        }
+
+        // still held by a screen even though the LRU dropped it
+        WeakReference<T> reference = identityMap.get(objectId);
+        object = reference != null ? reference.get() : null;
+
+        if (object != null) {
+            recentObjects.put(objectId, object);
+        } else {
+            identityMap.remove(objectId);
+        }
+        return object;
+    }
+
+    // stores a fetched object, which is the cached instance itself while the local datastore is enabled
+    synchronized T put(T object) {
+
+        String objectId = object.getObjectId();
+        if (objectId == null) {
+            return object;
+        }
+
+        // a second instance means Parse is no longer keeping them unique, the fetched one has the newer fields
+        T cached = get(objectId);
+        if (cached != null && cached != object)
+            Log.w(TAG, "second instance of " + object.getClassName() + " " + objectId + ", is the local datastore enabled?");
+
+        recentObjects.put(objectId, object);
+        identityMap.put(objectId, references.create(object));
+        return object;
+    }
+
+    synchronized List<T> putAll(List<T> objects) {
+
+        List<T> cached = new ArrayList<>();
+        for (T object : objects) {
+            cached.add(put(object));
+        }
+        return cached;
+    }
+
+    synchronized void remove(String objectId) {
+        recentObjects.remove(objectId);
+        identityMap.remove(objectId);
+    }
+}
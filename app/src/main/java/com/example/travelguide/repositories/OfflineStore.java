@@ -0,0 +1,120 @@
+package com.example.travelguide.repositories;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.parse.ParseObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * pins of the local datastore, so places that were opened before load instantly and work offline
+ * the guides of followed locations and of the most recently synced ones stay pinned, older ones are unpinned
+ */
+public class OfflineStore {
+
+    private static final String TAG = "OfflineStore";
+
+    private static final String PREFS_NAME = "offline_store";
+
+    static final String PIN_LOCATIONS = "locations";
+    private static final String PIN_GUIDES_PREFIX = "guides_";
+
+    // locations that aren't followed keep their guides on the device while they are among the most recent
+    private static final int MAX_VIEWED_LOCATIONS = 20;
+
+    private static OfflineStore instance;
+
+    // time of the last sync of each pin
+    private final SharedPreferences preferences;
+
+    private OfflineStore(Context context) {
+        preferences = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    // must be called when the application is created
+    public static void initialize(Context context) {
+        if (instance == null) {
+            instance = new OfflineStore(context.getApplicationContext());
+        }
+    }
+
+    public static OfflineStore getInstance() {
+        return instance;
+    }
+
+    static String getGuidesPin(String locationID) {
+        return PIN_GUIDES_PREFIX + locationID;
+    }
+
+    // 0 when nothing is pinned under the name
+    long getSyncedAt(String pin) {
+        return preferences.getLong(pin, 0);
+    }
+
+    // replaces the objects pinned under the name with the synced ones
+    void replacePin(String pin, List<? extends ParseObject> objects) {
+
+        preferences.edit().putLong(pin, System.currentTimeMillis()).apply();
+
+        ParseObject.unpinAllInBackground(pin, e -> {
+
+            if (e != null) {
+                Log.e(TAG, "Issue with unpinning " + pin, e);
+                return;
+            }
+
+            // included pointers, like the authors of guides, are pinned with the objects
+            ParseObject.pinAllInBackground(pin, objects, e2 -> {
+                if (e2 != null)
+                    Log.e(TAG, "Issue with pinning " + pin, e2);
+            });
+        });
+
+        evictLocations();
+    }
+
+    // adds a changed object to a pin that is already on the device
+    void addToPin(String pin, ParseObject object) {
+        if (getSyncedAt(pin) != 0)
+            object.pinInBackground(pin);
+    }
+
+    void removeFromPin(String pin, ParseObject object) {
+        if (getSyncedAt(pin) != 0)
+            object.unpinInBackground(pin);
+    }
+
+    // unpins the guides of the least recently synced locations that aren't followed
+    private void evictLocations() {
+
+        List<Map.Entry<String, ?>> viewed = new ArrayList<>();
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+
+            if (!entry.getKey().startsWith(PIN_GUIDES_PREFIX))
+                continue;
+
+            String locationID = entry.getKey().substring(PIN_GUIDES_PREFIX.length());
+            if (!FollowRepository.getInstance().isFollowed(locationID))
+                viewed.add(entry);
+        }
+
+        if (viewed.size() <= MAX_VIEWED_LOCATIONS) {
+            return;
+        }
+
+        // oldest sync first
+        Collections.sort(viewed, (entry1, entry2) -> Long.compare((Long) entry1.getValue(), (Long) entry2.getValue()));
+
+        SharedPreferences.Editor editor = preferences.edit();
+        for (Map.Entry<String, ?> entry : viewed.subList(0, viewed.size() - MAX_VIEWED_LOCATIONS)) {
+            editor.remove(entry.getKey());
+            ParseObject.unpinAllInBackground(entry.getKey());
+        }
+        editor.apply();
+    }
+}
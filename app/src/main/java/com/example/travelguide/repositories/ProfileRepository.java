@@ -0,0 +1,253 @@
+package com.example.travelguide.repositories;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+
+import com.example.travelguide.classes.Activity;
+import com.example.travelguide.classes.Guide;
+import com.parse.FindCallback;
+import com.parse.GetCallback;
+import com.parse.ParseException;
+import com.parse.ParseQuery;
+import com.parse.ParseUser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+
+/*
+ * profile data kept for the session so switching tabs doesn't fetch the profile again
+ * cached data is returned straight away and refreshed in the background once it is stale,
+ * refreshes only ask for guides and likes newer than the ones already cached
+ */
+public class ProfileRepository {
+
+    private static final String TAG = "ProfileRepository";
+
+    // cached data younger than this is shown without a refresh
+    private static final long STALE_AFTER_MS = 30 * 1000;
+
+    private static final int CREATED_GUIDES_LIMIT = 20;
+    private static final int LIKED_PAGE_SIZE = 20;
+
+    private static ProfileRepository instance;
+
+    private final HashMap<String, CachedGuides> createdGuides = new HashMap<>();
+    private final HashMap<String, CachedGuides> likedGuides = new HashMap<>();
+
+    // interface for loaded guides, called on the main thread
+    public interface GuidesCallback {
+        void done(List<Guide> guides, ParseException e);
+    }
+
+    private static class CachedGuides {
+        final List<Guide> guides = new ArrayList<>();
+        // createdAt of the newest and oldest row loaded, guides for created guides and likes for liked ones
+        Date newest;
+        Date oldest;
+        boolean hasMore;
+        long fetchedAt;
+    }
+
+    private ProfileRepository() {
+    }
+
+    public static ProfileRepository getInstance() {
+        if (instance == null) {
+            instance = new ProfileRepository();
+        }
+        return instance;
+    }
+
+    // returns the cached user at once and again after a refresh when it is stale
+    public void getUser(String userID, GetCallback<ParseUser> callback) {
+        UserRepository.getInstance().getUser(userID, callback);
+    }
+
+    /**
+     * returns the guides created by the user, from the cache first when there is one
+     *
+     * @param user     author of the guides.
+     * @param force    reloads every guide instead of only the new ones.
+     * @param callback called with the cached list and again with the refreshed list.
+     */
+    public void getCreatedGuides(ParseUser user, boolean force, GuidesCallback callback) {
+
+        CachedGuides cached = createdGuides.get(user.getObjectId());
+
+        if (cached != null && !force) {
+            callback.done(new ArrayList<>(cached.guides), null);
+            if (!isStale(cached.fetchedAt)) {
+                return;
+            }
+        }
+
+        boolean isDelta = cached != null && !force && cached.newest != null;
+
+        // only guides posted since the last refresh
+        GuideRepository.getInstance().getCreatedGuides(user, CREATED_GUIDES_LIMIT, isDelta ? cached.newest : null, (guides, e) -> {
+
+            if (e != null) {
+                if (!isDelta)
+                    callback.done(null, e);
+                return;
+            }
+
+            // a full page of new guides may have left a gap, so the cached ones are dropped
+            CachedGuides updated = (isDelta && guides.size() < CREATED_GUIDES_LIMIT) ? cached : new CachedGuides();
+
+            // newer guides go on top of the cached ones
+            updated.guides.addAll(0, guides);
+            if (!guides.isEmpty())
+                updated.newest = guides.get(0).getCreatedAt();
+            updated.fetchedAt = SystemClock.elapsedRealtime();
+            createdGuides.put(user.getObjectId(), updated);
+
+            callback.done(new ArrayList<>(updated.guides), null);
+        });
+    }
+
+    /**
+     * returns the first pages of guides liked by the user, from the cache first when there is one
+     *
+     * @param user     user that liked the guides.
+     * @param force    reloads the first page instead of only the new likes.
+     * @param callback called with the cached list and again with the refreshed list.
+     */
+    public void getLikedGuides(ParseUser user, boolean force, GuidesCallback callback) {
+
+        CachedGuides cached = likedGuides.get(user.getObjectId());
+
+        if (cached != null && !force) {
+            callback.done(new ArrayList<>(cached.guides), null);
+            if (!isStale(cached.fetchedAt)) {
+                return;
+            }
+        }
+
+        boolean isDelta = cached != null && !force && cached.newest != null;
+
+        queryLikes(user, isDelta ? cached.newest : null, null, (activities, e) -> {
+
+            if (e != null) {
+                Log.e(TAG, "Issue with getting liked guides", e);
+                if (!isDelta)
+                    callback.done(null, e);
+                return;
+            }
+
+            // a full page of new likes may have left a gap, so the cached ones are dropped
+            CachedGuides updated;
+            if (isDelta && activities.size() < LIKED_PAGE_SIZE) {
+                updated = cached;
+            } else {
+                updated = new CachedGuides();
+                updated.hasMore = activities.size() == LIKED_PAGE_SIZE;
+                if (!activities.isEmpty())
+                    updated.oldest = activities.get(activities.size() - 1).getCreatedAt();
+            }
+
+            // newer likes go on top of the cached ones
+            updated.guides.addAll(0, getGuides(activities));
+            if (!activities.isEmpty())
+                updated.newest = activities.get(0).getCreatedAt();
+            updated.fetchedAt = SystemClock.elapsedRealtime();
+            likedGuides.put(user.getObjectId(), updated);
+
+            callback.done(new ArrayList<>(updated.guides), null);
+        });
+    }
+
+    // loads the page of liked guides after the cached ones, the callback gets only the new page
+    public void loadMoreLikedGuides(ParseUser user, GuidesCallback callback) {
+
+        CachedGuides cached = likedGuides.get(user.getObjectId());
+
+        if (cached == null || !cached.hasMore) {
+            callback.done(new ArrayList<>(), null);
+            return;
+        }
+
+        queryLikes(user, null, cached.oldest, (activities, e) -> {
+
+            if (e != null) {
+                Log.e(TAG, "Issue with getting liked guides", e);
+                callback.done(null, e);
+                return;
+            }
+
+            List<Guide> page = getGuides(activities);
+
+            cached.guides.addAll(page);
+            cached.hasMore = activities.size() == LIKED_PAGE_SIZE;
+            if (!activities.isEmpty())
+                cached.oldest = activities.get(activities.size() - 1).getCreatedAt();
+
+            callback.done(page, null);
+        });
+    }
+
+    public boolean hasMoreLikedGuides(String userID) {
+        CachedGuides cached = likedGuides.get(userID);
+        return cached != null && cached.hasMore;
+    }
+
+    // new guides are picked up by the next refresh
+    public void markCreatedGuidesStale(String userID) {
+        CachedGuides cached = createdGuides.get(userID);
+        if (cached != null)
+            cached.fetchedAt = 0;
+    }
+
+    // unlikes can't be found by a refresh, so the liked guides are loaded again
+    public void invalidateLikedGuides(String userID) {
+        likedGuides.remove(userID);
+    }
+
+    // gets a page of likes, newer than likedAfter or older than likedBefore
+    private void queryLikes(ParseUser user, @Nullable Date likedAfter, @Nullable Date likedBefore, FindCallback<Activity> callback) {
+
+        // specify what type of data we want to query - Guide.class
+        ParseQuery<Activity> query = ParseQuery.getQuery(Activity.class);
+
+        query.selectKeys(Arrays.asList(Activity.getKeyUserId(), Activity.getKeyType(), Activity.getKeyGuideId()));
+
+        //  where the author is the logged in user
+        query.whereEqualTo(Activity.getKeyUserId(), user);
+        query.whereEqualTo(Activity.getKeyType(), Activity.TYPE_LIKE);
+
+        // select the guide in the same request, its rows show the author snapshot saved with it
+        query.include(Activity.getKeyGuideId());
+
+        // pages by the time of the likes already loaded
+        query.setLimit(LIKED_PAGE_SIZE);
+        if (likedAfter != null)
+            query.whereGreaterThan(Activity.getKeyCreationDate(), likedAfter);
+        if (likedBefore != null)
+            query.whereLessThan(Activity.getKeyCreationDate(), likedBefore);
+
+        // order posts by creation date (newest first)
+        query.addDescendingOrder(Activity.getKeyCreationDate());
+
+        query.findInBackground(callback);
+    }
+
+    // returns the guides of the likes, skipping deleted guides
+    private static List<Guide> getGuides(List<Activity> activities) {
+
+        List<Guide> guides = new ArrayList<>();
+        for (Activity activity : activities) {
+            if (activity.getGuide() != null)
+                guides.add(activity.getGuide());
+        }
+        return GuideRepository.getInstance().cacheGuides(guides);
+    }
+
+    private static boolean isStale(long fetchedAt) {
+        return SystemClock.elapsedRealtime() - fetchedAt > STALE_AFTER_MS;
+    }
+}
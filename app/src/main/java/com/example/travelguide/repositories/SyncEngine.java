@@ -0,0 +1,340 @@
+package com.example.travelguide.repositories;
+
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import com.parse.FindCallback;
+import com.parse.ParseException;
+import com.parse.ParseObject;
+import com.parse.ParseQuery;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/*
+ * keeps the result set of a query per scope and refreshes it with only the objects updated since the last sync
+ * deleted objects are found through the Tombstone rows the server writes when an object is deleted
+ */
+class SyncEngine<T extends ParseObject> {
+
+    private static final String TAG = "SyncEngine";
+
+    private static final String TOMBSTONE_CLASS = "Tombstone";
+    private static final String KEY_TARGET_CLASS = "targetClass";
+    private static final String KEY_TARGET_ID = "targetID";
+    private static final String KEY_SCOPE = "scope";
+    private static final String KEY_CREATED_AT = "createdAt";
+    private static final String KEY_UPDATED_AT = "updatedAt";
+    private static final String KEY_OBJECT_ID = "objectId";
+
+    private static final int PAGE_SIZE = 100;
+
+    // changes are read again from a bit before the high-water mark in case two writes landed out of order
+    private static final long OVERLAP_MS = 1000;
+    // the server purges tombstones after this, a scope synced before then is fetched again in full
+    private static final long TOMBSTONE_TTL_MS = 30L * 24 * 60 * 60 * 1000;
+
+    // builds the query of a scope, the engine adds the updatedAt constraint, order and limit
+    interface QueryFactory<T extends ParseObject> {
+        ParseQuery<T> getQuery();
+    }
+
+    private static class SyncState<T extends ParseObject> {
+        final LinkedHashMap<String, T> objects = new LinkedHashMap<>();
+        // newest updatedAt and tombstone createdAt seen, both set by the server
+        Date objectsSince;
+        Date deletionsSince;
+        long syncedAt;
+        // callbacks waiting for the sync in flight
+        List<FindCallback<T>> pending;
+    }
+
+    private final String className;
+    @Nullable
+    private final Comparator<T> order;
+    private final int maxSize;
+
+    private final HashMap<String, SyncState<T>> states = new HashMap<>();
+
+    /**
+     * @param className class of the synced objects, used to find their tombstones.
+     * @param order     order of the result sets, null to keep them in the order they were fetched.
+     * @param maxSize   the most objects kept per scope, the last ones in order are dropped.
+     */
+    SyncEngine(String className, @Nullable Comparator<T> order, int maxSize) {
+        this.className = className;
+        this.order = order;
+        this.maxSize = maxSize;
+    }
+
+    // true when the scope can be refreshed with a delta instead of a full fetch
+    boolean hasSynced(String scope) {
+        SyncState<T> state = states.get(scope);
+        return state != null && System.currentTimeMillis() - state.syncedAt < TOMBSTONE_TTL_MS;
+    }
+
+    List<T> getObjects(String scope) {
+        SyncState<T> state = states.get(scope);
+        return state != null ? trim(state) : new ArrayList<>();
+    }
+
+    // replaces the result set of the scope with a full fetch, the high-water marks are taken from the objects
+    List<T> seed(String scope, List<T> fetched) {
+        return seed(scope, fetched, System.currentTimeMillis());
+    }
+
+    // replaces the result set with objects stored when they were synced at the given time
+    List<T> seed(String scope, List<T> fetched, long syncedAt) {
+
+        SyncState<T> state = new SyncState<>();
+
+        for (T object : fetched) {
+            state.objects.put(object.getObjectId(), object);
+            state.objectsSince = getNewer(state.objectsSince, object.getUpdatedAt());
+        }
+        // anything deleted after the newest change in the full fetch may still be in it
+        state.deletionsSince = state.objectsSince;
+        state.syncedAt = syncedAt;
+
+        states.put(scope, state);
+        return trim(state);
+    }
+
+    // applies a change pushed by the server, the high-water marks stay so the next sync still finds changes missed before it
+    void put(String scope, T object) {
+        SyncState<T> state = states.get(scope);
+        if (state != null)
+            state.objects.put(object.getObjectId(), object);
+    }
+
+    void remove(String scope, String objectId) {
+        SyncState<T> state = states.get(scope);
+        if (state != null)
+            state.objects.remove(objectId);
+    }
+
+    /**
+     * fetches the objects of the scope updated since the last sync and the ones deleted since then,
+     * and merges them into the result set
+     *
+     * @param scope         key of the result set.
+     * @param deletionScope scope the server gives the tombstones of the result set, null for every tombstone of the class.
+     * @param factory       builds the query of the scope.
+     * @param callback      called with the merged result set.
+     */
+    void sync(String scope, @Nullable String deletionScope, QueryFactory<T> factory, FindCallback<T> callback) {
+
+        SyncState<T> state = states.get(scope);
+        if (state == null) {
+            callback.done(null, new ParseException(ParseException.CACHE_MISS, "scope " + scope + " has not been synced"));
+            return;
+        }
+
+        // joins the sync in flight instead of asking the server twice
+        if (state.pending != null) {
+            state.pending.add(callback);
+            return;
+        }
+        state.pending = new ArrayList<>();
+        state.pending.add(callback);
+
+        fetchChanges(factory, getOverlapped(state.objectsSince), null, new ArrayList<>(), (changed, e) -> {
+
+            if (e != null) {
+                finishSync(state, e);
+                return;
+            }
+
+            fetchDeletions(deletionScope, getOverlapped(state.deletionsSince), null, new ArrayList<>(), (deleted, e2) -> {
+
+                if (e2 != null) {
+                    finishSync(state, e2);
+                    return;
+                }
+
+                merge(state, changed, deleted);
+
+                Log.i(TAG, className + " sync: " + changed.size() + " changed, " + deleted.size() + " deleted");
+                finishSync(state, null);
+            });
+        });
+    }
+
+    // merges fetched changes and tombstones into the result set of the scope
+    void merge(String scope, List<T> changed, List<? extends ParseObject> deleted) {
+        SyncState<T> state = states.get(scope);
+        if (state != null)
+            merge(state, changed, deleted);
+    }
+
+    private void merge(SyncState<T> state, List<T> changed, List<? extends ParseObject> deleted) {
+
+        // updated objects replace the cached ones, deleted ones are dropped
+        for (T object : changed) {
+            state.objects.put(object.getObjectId(), object);
+            state.objectsSince = getNewer(state.objectsSince, object.getUpdatedAt());
+        }
+        for (ParseObject tombstone : deleted) {
+            state.objects.remove(tombstone.getString(KEY_TARGET_ID));
+            state.deletionsSince = getNewer(state.deletionsSince, tombstone.getCreatedAt());
+        }
+        state.syncedAt = System.currentTimeMillis();
+    }
+
+    // newest updatedAt merged into the scope
+    @VisibleForTesting
+    @Nullable
+    Date getObjectsSince(String scope) {
+        SyncState<T> state = states.get(scope);
+        return state != null ? state.objectsSince : null;
+    }
+
+    // newest tombstone createdAt merged into the scope
+    @VisibleForTesting
+    @Nullable
+    Date getDeletionsSince(String scope) {
+        SyncState<T> state = states.get(scope);
+        return state != null ? state.deletionsSince : null;
+    }
+
+    /*
+     * pages through the objects updated after the mark, oldest change first
+     * pages after the first continue from the updatedAt and objectId of the last row,
+     * so rows sharing the millisecond of the last row aren't skipped
+     */
+    private void fetchChanges(QueryFactory<T> factory, @Nullable Date since, @Nullable String afterID, List<T> changed, FindCallback<T> callback) {
+
+        ParseQuery<T> query = getPageQuery(factory, KEY_UPDATED_AT, since, afterID);
+        query.setLimit(PAGE_SIZE);
+
+        query.findInBackground((objects, e) -> {
+
+            if (e != null) {
+                callback.done(null, e);
+                return;
+            }
+
+            changed.addAll(objects);
+
+            // a full page may have more changes after it
+            if (objects.size() == PAGE_SIZE) {
+                T last = objects.get(objects.size() - 1);
+                fetchChanges(factory, last.getUpdatedAt(), last.getObjectId(), changed, callback);
+            } else {
+                callback.done(changed, null);
+            }
+        });
+    }
+
+    // pages through the tombstones of the class written after the mark, with the same cursor as the changes
+    private void fetchDeletions(@Nullable String deletionScope, @Nullable Date since, @Nullable String afterID, List<ParseObject> deleted, FindCallback<ParseObject> callback) {
+
+        ParseQuery<ParseObject> query = getPageQuery(() -> {
+            ParseQuery<ParseObject> tombstoneQuery = ParseQuery.getQuery(TOMBSTONE_CLASS);
+            tombstoneQuery.whereEqualTo(KEY_TARGET_CLASS, className);
+            if (deletionScope != null)
+                tombstoneQuery.whereEqualTo(KEY_SCOPE, deletionScope);
+            return tombstoneQuery;
+        }, KEY_CREATED_AT, since, afterID);
+        query.selectKeys(Collections.singletonList(KEY_TARGET_ID));
+        query.setLimit(PAGE_SIZE);
+
+        query.findInBackground((tombstones, e) -> {
+
+            if (e != null) {
+                callback.done(null, e);
+                return;
+            }
+
+            deleted.addAll(tombstones);
+
+            if (tombstones.size() == PAGE_SIZE) {
+                ParseObject last = tombstones.get(tombstones.size() - 1);
+                fetchDeletions(deletionScope, last.getCreatedAt(), last.getObjectId(), deleted, callback);
+            } else {
+                callback.done(deleted, null);
+            }
+        });
+    }
+
+    /**
+     * builds the query of a page ordered by a timestamp and the objectId
+     *
+     * @param dateKey the timestamp the rows are paged by.
+     * @param since   rows with a later timestamp are returned, null for every row.
+     * @param afterID objectId of the last row of the previous page, rows with the same timestamp and a greater id are returned too.
+     */
+    private static <O extends ParseObject> ParseQuery<O> getPageQuery(QueryFactory<O> factory, String dateKey, @Nullable Date since, @Nullable String afterID) {
+
+        ParseQuery<O> query;
+        if (since != null && afterID != null) {
+            ParseQuery<O> later = factory.getQuery();
+            later.whereGreaterThan(dateKey, since);
+
+            ParseQuery<O> sameTime = factory.getQuery();
+            sameTime.whereEqualTo(dateKey, since);
+            sameTime.whereGreaterThan(KEY_OBJECT_ID, afterID);
+
+            query = ParseQuery.or(Arrays.asList(later, sameTime));
+        } else {
+            query = factory.getQuery();
+            if (since != null)
+                query.whereGreaterThan(dateKey, since);
+        }
+
+        query.addAscendingOrder(dateKey);
+        query.addAscendingOrder(KEY_OBJECT_ID);
+        return query;
+    }
+
+    // passes the merged result set, or the error, to every callback waiting for the sync
+    private void finishSync(SyncState<T> state, @Nullable ParseException e) {
+
+        List<FindCallback<T>> callbacks = state.pending;
+        state.pending = null;
+
+        if (e != null)
+            Log.e(TAG, "Issue with syncing " + className, e);
+
+        List<T> objects = e == null ? trim(state) : null;
+        for (FindCallback<T> callback : callbacks) {
+            callback.done(objects != null ? new ArrayList<>(objects) : null, e);
+        }
+    }
+
+    // orders the result set and drops the objects past the limit
+    private List<T> trim(SyncState<T> state) {
+
+        List<T> objects = new ArrayList<>(state.objects.values());
+        if (order != null)
+            Collections.sort(objects, order);
+
+        if (objects.size() > maxSize) {
+            for (T dropped : objects.subList(maxSize, objects.size())) {
+                state.objects.remove(dropped.getObjectId());
+            }
+            objects = new ArrayList<>(objects.subList(0, maxSize));
+        }
+        return objects;
+    }
+
+    @Nullable
+    private static Date getOverlapped(@Nullable Date mark) {
+        return mark != null ? new Date(mark.getTime() - OVERLAP_MS) : null;
+    }
+
+    @Nullable
+    private static Date getNewer(@Nullable Date mark, @Nullable Date date) {
+        if (date == null)
+            return mark;
+        return (mark == null || date.after(mark)) ? date : mark;
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.travelguide.repositories;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.Nullable;
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.example.travelguide.classes.Location;
+import com.google.android.gms.maps.model.LatLng;
+import com.parse.ParseCloud;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/*
+ * app wide source of the trending locations shared by the map and the location modals
+ * results are cached by coarse position and only one request per position is in flight at a time
+ */
+public class TrendingRepository {
+
+    private static final String TAG = "TrendingRepository";
+
+    private static final String TRENDING_FUNCTION = "getTrendingLocations";
+    private static final String GLOBAL_KEY = "global";
+
+    // asks the server for full location objects instead of ids
+    private static final int RESPONSE_VERSION = 2;
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_LOCATIONS = "locations";
+
+    // positions are rounded to a tenth of a degree, about 11km
+    private static final double CELL_SIZE = 0.1;
+
+    // matches how long the server caches the same results
+    private static final long CACHE_TTL_MS = 60 * 1000;
+
+    private static TrendingRepository instance;
+
+    private final HashMap<String, MutableLiveData<List<Location>>> trendingLocations = new HashMap<>();
+    private final HashMap<String, Long> fetchedAt = new HashMap<>();
+    private final HashSet<String> pendingKeys = new HashSet<>();
+    // position each key was first requested with, null for the global key, used to refresh it
+    private final HashMap<String, LatLng> positions = new HashMap<>();
+    // keys invalidated while their request was in flight, its response is already out of date
+    private final HashSet<String> invalidatedKeys = new HashSet<>();
+
+    private TrendingRepository() {
+    }
+
+    public static TrendingRepository getInstance() {
+        if (instance == null) {
+            instance = new TrendingRepository();
+        }
+        return instance;
+    }
+
+    /**
+     * returns the trending locations around a position, refreshing them if they are missing or stale
+     * must be called on the main thread
+     *
+     * @param position the position to search around, null for trending locations everywhere
+     * @return observable list of trending locations, highest ranked first
+     */
+    public LiveData<List<Location>> getTrendingLocations(@Nullable LatLng position) {
+
+        String key = getKey(position);
+
+        MutableLiveData<List<Location>> liveData = trendingLocations.get(key);
+        if (liveData == null) {
+            liveData = new MutableLiveData<>();
+            trendingLocations.put(key, liveData);
+            positions.put(key, position);
+        }
+
+        // only requests the locations again once the cached ones expire
+        Long lastFetch = fetchedAt.get(key);
+        boolean isFresh = lastFetch != null && SystemClock.elapsedRealtime() - lastFetch < CACHE_TTL_MS;
+
+        if (!isFresh && !pendingKeys.contains(key)) {
+            fetchTrendingLocations(key, position, liveData);
+        }
+
+        return liveData;
+    }
+
+    /*
+     * drops the cached results so the next call requests them again,
+     * results a screen is observing right now are requested straight away
+     * must be called on the main thread
+     */
+    public void invalidate() {
+
+        fetchedAt.clear();
+
+        for (Map.Entry<String, MutableLiveData<List<Location>>> entry : trendingLocations.entrySet()) {
+
+            String key = entry.getKey();
+            if (!entry.getValue().hasActiveObservers()) {
+                continue;
+            }
+
+            // a request in flight is sent again once it returns
+            if (pendingKeys.contains(key)) {
+                invalidatedKeys.add(key);
+            } else {
+                fetchTrendingLocations(key, positions.get(key), entry.getValue());
+            }
+        }
+    }
+
+    private void fetchTrendingLocations(String key, @Nullable LatLng position, MutableLiveData<List<Location>> liveData) {
+
+        pendingKeys.add(key);
+
+        // passes in the parameters for the cloud function
+        final HashMap<String, Object> trendingParams = new HashMap<>();
+        trendingParams.put(KEY_VERSION, RESPONSE_VERSION);
+        if (position != null) {
+            trendingParams.put("locationLat", position.latitude);
+            trendingParams.put("locationLong", position.longitude);
+        }
+
+        // Calling the cloud code function to get trending locations
+        ParseCloud.<Map<String, Object>>callFunctionInBackground(TRENDING_FUNCTION, trendingParams, (response, e) -> {
+
+            pendingKeys.remove(key);
+
+            if (invalidatedKeys.remove(key) && liveData.hasActiveObservers()) {
+                fetchTrendingLocations(key, position, liveData);
+                return;
+            }
+
+            if (e != null) {
+                Log.e(TAG, "Issue with getting trending locations", e);
+                return;
+            }
+
+            fetchedAt.put(key, SystemClock.elapsedRealtime());
+            liveData.setValue(getLocations(response));
+        });
+    }
+
+    // reads the locations out of a versioned response
+    @SuppressWarnings("unchecked")
+    private static List<Location> getLocations(Map<String, Object> response) {
+
+        List<Location> locations = new ArrayList<>();
+
+        if (response == null || !(response.get(KEY_LOCATIONS) instanceof List)) {
+            Log.e(TAG, "unexpected trending response " + response);
+            return locations;
+        }
+
+        for (Object location : (List<Object>) response.get(KEY_LOCATIONS)) {
+            if (location instanceof Location) {
+                locations.add((Location) location);
+            }
+        }
+        return LocationRepository.getInstance().cacheLocations(locations);
+    }
+
+    // rounds the position down to the cell it is in
+    private static String getKey(@Nullable LatLng position) {
+
+        if (position == null) {
+            return GLOBAL_KEY;
+        }
+
+        long latCell = (long) Math.floor(position.latitude / CELL_SIZE);
+        long longCell = (long) Math.floor(position.longitude / CELL_SIZE);
+
+        return String.format(Locale.US, "%d:%d", latCell, longCell);
+    }
+}
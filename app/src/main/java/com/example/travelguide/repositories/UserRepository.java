@@ -0,0 +1,110 @@
+package com.example.travelguide.repositories;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.parse.GetCallback;
+import com.parse.ParseQuery;
+import com.parse.ParseUser;
+
+import java.util.HashMap;
+
+/*
+ * single source of users for every screen
+ * users are kept in memory for the session
+ */
+public class UserRepository {
+
+    private static final String TAG = "UserRepository";
+
+    private static final int MEMORY_CACHE_SIZE = 100;
+
+    // a cached user younger than this is returned without asking the server
+    private static final long STALE_AFTER_MS = 30 * 1000;
+
+    private static UserRepository instance;
+
+    private final ObjectCache<ParseUser> users = new ObjectCache<>(MEMORY_CACHE_SIZE);
+    private final HashMap<String, Long> fetchedAt = new HashMap<>();
+
+    private UserRepository() {
+    }
+
+    public static UserRepository getInstance() {
+        if (instance == null) {
+            instance = new UserRepository();
+        }
+        return instance;
+    }
+
+    // stores users that were loaded as part of another query
+    public ParseUser cacheUser(ParseUser user) {
+
+        // the logged in user is always the current user instance
+        ParseUser currentUser = ParseUser.getCurrentUser();
+        if (currentUser != null && currentUser.getObjectId().equals(user.getObjectId())) {
+            return currentUser;
+        }
+
+        if (!user.isDataAvailable()) {
+            ParseUser cached = users.get(user.getObjectId());
+            return cached != null ? cached : user;
+        }
+
+        return users.put(user);
+    }
+
+    /**
+     * returns the user from memory or the device straight away and again from the server once it is stale
+     *
+     * @param userID   id of the user.
+     * @param callback called with the cached user first and then with the fetched one.
+     */
+    public void getUser(String userID, GetCallback<ParseUser> callback) {
+
+        ParseUser currentUser = ParseUser.getCurrentUser();
+        if (currentUser != null && currentUser.getObjectId().equals(userID)) {
+            callback.done(currentUser, null);
+            return;
+        }
+
+        ParseUser cached = users.get(userID);
+        Long lastFetch = fetchedAt.get(userID);
+
+        if (cached != null) {
+            callback.done(cached, null);
+            if (lastFetch == null || SystemClock.elapsedRealtime() - lastFetch >= STALE_AFTER_MS)
+                fetchUser(userID, true, callback);
+            return;
+        }
+
+        // a user already stored on the device is shown while the server is asked
+        ParseQuery<ParseUser> query = ParseUser.getQuery();
+        query.fromLocalDatastore();
+
+        query.getInBackground(userID, (user, e) -> {
+
+            if (e == null)
+                callback.done(users.put(user), null);
+
+            fetchUser(userID, e == null, callback);
+        });
+    }
+
+    private void fetchUser(String userID, boolean isShown, GetCallback<ParseUser> callback) {
+
+        ParseUser.getQuery().getInBackground(userID, (user, e) -> {
+
+            if (e != null) {
+                Log.e(TAG, "Issue with fetching user " + userID, e);
+                // keeps showing the cached user when the server can't be reached
+                if (!isShown)
+                    callback.done(null, e);
+                return;
+            }
+
+            fetchedAt.put(userID, SystemClock.elapsedRealtime());
+            callback.done(users.put(user), null);
+        });
+    }
+}
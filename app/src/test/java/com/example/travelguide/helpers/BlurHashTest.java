@@ -0,0 +1,151 @@
+package com.example.travelguide.helpers;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import static org.junit.Assert.*;
+
+/**
+ * BlurHash runs on the JVM through Robolectric, its executor and main handler are created when the class loads.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class BlurHashTest {
+
+    // example from the BlurHash readme, 4 by 3 components
+    private static final String EXAMPLE_HASH = "LEHV6nWB2yk8pyo0adR*.7kCMdnj";
+
+    @Test
+    public void base83_roundTrips() {
+        int[] values = {0, 1, 82, 83, 6888, 83 * 83 * 83 * 83 - 1};
+
+        for (int value : values) {
+            StringBuilder hash = new StringBuilder();
+            BlurHash.encode83(value, 4, hash);
+
+            assertEquals(4, hash.length());
+            assertEquals(value, BlurHash.decode83(hash.toString(), 0, 4));
+        }
+    }
+
+    @Test
+    public void base83_encodesDigitsMostSignificantFirst() {
+        StringBuilder hash = new StringBuilder();
+        BlurHash.encode83(83 + 2, 2, hash);
+
+        assertEquals("12", hash.toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void base83_rejectsUnknownCharacters() {
+        BlurHash.decode83("ab!", 0, 3);
+    }
+
+    @Test
+    public void quantiseAC_mapsTheRangeOntoNineteenSteps() {
+        assertEquals(0, BlurHash.quantiseAC(-1f, 1f));
+        assertEquals(9, BlurHash.quantiseAC(0f, 1f));
+        assertEquals(18, BlurHash.quantiseAC(1f, 1f));
+    }
+
+    @Test
+    public void quantiseAC_clampsValuesPastTheMaximum() {
+        assertEquals(0, BlurHash.quantiseAC(-3f, 0.5f));
+        assertEquals(18, BlurHash.quantiseAC(3f, 0.5f));
+    }
+
+    @Test
+    public void encode_usesMoreComponentsAlongTheLongerSide() {
+        String wide = BlurHash.encode(solid(0xff336699, 8 * 6), 8, 6);
+        String tall = BlurHash.encode(solid(0xff336699, 6 * 8), 6, 8);
+
+        // 4 by 3 and 3 by 4 components, each AC component takes two characters
+        assertEquals(4 + 2 * 12, wide.length());
+        assertEquals(4 + 2 * 12, tall.length());
+        assertEquals(3 + 2 * 9, BlurHash.decode83(wide, 0, 1));
+        assertEquals(2 + 3 * 9, BlurHash.decode83(tall, 0, 1));
+    }
+
+    @Test
+    public void encode_storesTheAverageColorAsTheDCComponent() {
+        String hash = BlurHash.encode(solid(0xff336699, 8 * 6), 8, 6);
+
+        assertEquals(0x336699, BlurHash.decode83(hash, 2, 6));
+    }
+
+    @Test
+    public void solidColor_roundTrips() {
+        // the basis is sampled at pixel edges, so a flat photo keeps small AC components that fade as it gets larger
+        // 64 pixels is the size MediaMetadata hashes at
+        String hash = BlurHash.encode(solid(0xff336699, 64 * 48), 64, 48);
+        int[] pixels = BlurHash.decodePixels(hash, 16, 12);
+
+        assertNotNull(pixels);
+        for (int pixel : pixels) {
+            assertColorNear(0xff336699, pixel, 8);
+        }
+    }
+
+    @Test
+    public void gradient_roundTripsApproximately() {
+        int width = 16;
+        int height = 8;
+        int[] source = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int red = 255 * x / (width - 1);
+                source[y * width + x] = 0xff000000 | (red << 16) | 0x80;
+            }
+        }
+
+        int[] pixels = BlurHash.decodePixels(BlurHash.encode(source, width, height), width, height);
+
+        assertNotNull(pixels);
+        // the placeholder is blurred, the ends of the gradient keep their side
+        assertTrue(red(pixels[0]) < 80);
+        assertTrue(red(pixels[width - 1]) > 175);
+        assertTrue(red(pixels[0]) < red(pixels[width / 2]));
+        assertTrue(red(pixels[width / 2]) < red(pixels[width - 1]));
+    }
+
+    @Test
+    public void decode_readsTheExampleHash() {
+        int[] pixels = BlurHash.decodePixels(EXAMPLE_HASH, 32, 24);
+
+        assertNotNull(pixels);
+        assertEquals(32 * 24, pixels.length);
+        for (int pixel : pixels) {
+            assertEquals(0xff, pixel >>> 24);
+        }
+    }
+
+    @Test
+    public void decode_rejectsInvalidHashes() {
+        assertNull(BlurHash.decodePixels(null, 4, 4));
+        assertNull(BlurHash.decodePixels("L", 4, 4));
+        // one character short of the length its size flag asks for
+        assertNull(BlurHash.decodePixels(EXAMPLE_HASH.substring(0, EXAMPLE_HASH.length() - 1), 4, 4));
+        assertNull(BlurHash.decodePixels("LEHV6nWB2yk8pyo0adR*.7kCMdn!", 4, 4));
+    }
+
+    private static int[] solid(int color, int size) {
+        int[] pixels = new int[size];
+        for (int i = 0; i < size; i++) {
+            pixels[i] = color;
+        }
+        return pixels;
+    }
+
+    private static int red(int pixel) {
+        return (pixel >> 16) & 0xff;
+    }
+
+    private static void assertColorNear(int expected, int actual, int tolerance) {
+        for (int shift = 0; shift <= 16; shift += 8) {
+            int expectedChannel = (expected >> shift) & 0xff;
+            int actualChannel = (actual >> shift) & 0xff;
+            assertTrue("expected " + Integer.toHexString(expected) + " but was " + Integer.toHexString(actual),
+                    Math.abs(expectedChannel - actualChannel) <= tolerance);
+        }
+    }
+}
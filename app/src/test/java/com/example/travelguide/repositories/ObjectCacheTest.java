@@ -0,0 +1,138 @@
+package com.example.travelguide.repositories;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * covers the LRU and the weak references behind it
+ * the cache is given references the test clears itself, which is what a collection does to objects only they hold
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ObjectCacheTest {
+
+    private static final int MAX_SIZE = 2;
+
+    private ObjectCache<TestObject> cache;
+    private final List<WeakReference<TestObject>> references = new ArrayList<>();
+
+    @Before
+    public void setUp() {
+        cache = new ObjectCache<>(MAX_SIZE, object -> {
+            WeakReference<TestObject> reference = new WeakReference<>(object);
+            references.add(reference);
+            return reference;
+        });
+    }
+
+    @Test
+    public void get_returnsTheStoredInstance() {
+        TestObject object = TestObject.create("a", 100);
+
+        assertSame(object, cache.put(object));
+        assertSame(object, cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void evictedObjects_areStillReturnedWhileAScreenHoldsThem() {
+        TestObject first = TestObject.create("a", 100);
+        cache.put(first);
+        cache.put(TestObject.create("b", 200));
+        cache.put(TestObject.create("c", 300));
+
+        // the LRU dropped the first object, the test still holds it like a screen would
+        assertSame(first, cache.get("a"));
+    }
+
+    @Test
+    public void recentObjects_stayCachedWhenNothingElseHoldsThem() {
+        cache.put(TestObject.create("a", 100));
+        cache.put(TestObject.create("b", 200));
+        cache.put(TestObject.create("c", 300));
+
+        clearReferences();
+
+        assertNotNull(cache.get("b"));
+        assertNotNull(cache.get("c"));
+    }
+
+    @Test
+    public void evictedObjects_areReleasedOnceNothingElseHoldsThem() {
+        cache.put(TestObject.create("a", 100));
+        cache.put(TestObject.create("b", 200));
+        cache.put(TestObject.create("c", 300));
+
+        clearReferences();
+
+        assertNull(cache.get("a"));
+    }
+
+    @Test
+    public void get_movesTheObjectToTheFrontOfTheLru() {
+        cache.put(TestObject.create("a", 100));
+        cache.put(TestObject.create("b", 200));
+
+        cache.get("a");
+        cache.put(TestObject.create("c", 300));
+
+        clearReferences();
+
+        assertNotNull(cache.get("a"));
+        assertNull(cache.get("b"));
+    }
+
+    @Test
+    public void put_keepsTheNewerInstance() {
+        TestObject stale = TestObject.create("a", 100);
+        TestObject fetched = TestObject.create("a", 200);
+
+        cache.put(stale);
+        cache.put(fetched);
+
+        assertSame(fetched, cache.get("a"));
+    }
+
+    @Test
+    public void putAll_returnsTheCachedInstancesInOrder() {
+        List<TestObject> objects = Arrays.asList(TestObject.create("a", 100), TestObject.create("b", 200));
+
+        List<TestObject> cached = cache.putAll(objects);
+
+        assertEquals(objects, cached);
+        assertSame(objects.get(1), cache.get("b"));
+    }
+
+    @Test
+    public void put_skipsObjectsThatWereNeverSaved() {
+        TestObject unsaved = TestObject.create(null, 100);
+
+        assertSame(unsaved, cache.put(unsaved));
+        assertNull(unsaved.getObjectId());
+    }
+
+    @Test
+    public void remove_dropsTheObjectFromTheLruAndTheIdentityMap() {
+        TestObject object = TestObject.create("a", 100);
+        cache.put(object);
+
+        cache.remove("a");
+
+        assertNull(cache.get("a"));
+    }
+
+    // what the garbage collector does once no screen holds the objects
+    private void clearReferences() {
+        for (WeakReference<TestObject> reference : references) {
+            reference.clear();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package com.example.travelguide.repositories;
+
+import com.parse.ParseException;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * covers the result sets and high-water marks kept per scope, the queries themselves need a server
+ */
+@RunWith(RobolectricTestRunner.class)
+public class SyncEngineTest {
+
+    private static final String SCOPE = "location";
+    private static final int MAX_SIZE = 3;
+
+    private SyncEngine<TestObject> engine;
+
+    @Before
+    public void setUp() {
+        // newest change first, like the guides of a location
+        engine = new SyncEngine<>("TestObject", (a, b) -> b.getUpdatedAt().compareTo(a.getUpdatedAt()), MAX_SIZE);
+    }
+
+    @Test
+    public void seed_ordersAndTrimsTheResultSet() {
+        List<TestObject> fetched = Arrays.asList(
+                TestObject.create("a", 100),
+                TestObject.create("b", 500),
+                TestObject.create("c", 300),
+                TestObject.create("d", 400),
+                TestObject.create("e", 200));
+
+        List<TestObject> objects = engine.seed(SCOPE, fetched);
+
+        assertEquals(Arrays.asList("b", "d", "c"), getIds(objects));
+        assertEquals(Arrays.asList("b", "d", "c"), getIds(engine.getObjects(SCOPE)));
+    }
+
+    @Test
+    public void seed_takesTheHighWaterMarksFromTheNewestObject() {
+        engine.seed(SCOPE, Arrays.asList(TestObject.create("a", 100), TestObject.create("b", 500)));
+
+        assertEquals(new Date(500), engine.getObjectsSince(SCOPE));
+        assertEquals(new Date(500), engine.getDeletionsSince(SCOPE));
+    }
+
+    @Test
+    public void hasSynced_onlyForScopesSeededWithinTheTombstoneLifetime() {
+        long tooLongAgo = System.currentTimeMillis() - 31L * 24 * 60 * 60 * 1000;
+        engine.seed("stale", Collections.singletonList(TestObject.create("a", 100)), tooLongAgo);
+        engine.seed(SCOPE, Collections.singletonList(TestObject.create("a", 100)));
+
+        assertTrue(engine.hasSynced(SCOPE));
+        assertFalse(engine.hasSynced("stale"));
+        assertFalse(engine.hasSynced("unknown"));
+    }
+
+    @Test
+    public void sync_failsWithCacheMissBeforeTheScopeIsSeeded() {
+        ParseException[] error = new ParseException[1];
+
+        engine.sync(SCOPE, null, () -> null, (objects, e) -> error[0] = e);
+
+        assertNotNull(error[0]);
+        assertEquals(ParseException.CACHE_MISS, error[0].getCode());
+    }
+
+    @Test
+    public void merge_replacesChangedObjectsAndDropsDeletedOnes() {
+        engine.seed(SCOPE, Arrays.asList(TestObject.create("a", 100), TestObject.create("b", 200)));
+
+        TestObject updated = TestObject.create("b", 300);
+        engine.merge(SCOPE, Arrays.asList(updated, TestObject.create("c", 250)), Collections.singletonList(TestObject.tombstone("a", 260)));
+
+        List<TestObject> objects = engine.getObjects(SCOPE);
+        assertEquals(Arrays.asList("b", "c"), getIds(objects));
+        assertSame(updated, objects.get(0));
+    }
+
+    @Test
+    public void merge_onlyMovesTheHighWaterMarksForward() {
+        engine.seed(SCOPE, Collections.singletonList(TestObject.create("a", 500)));
+
+        // rows read again because of the overlap are older than the marks
+        engine.merge(SCOPE, Collections.singletonList(TestObject.create("b", 400)), Collections.singletonList(TestObject.tombstone("c", 450)));
+        assertEquals(new Date(500), engine.getObjectsSince(SCOPE));
+        assertEquals(new Date(500), engine.getDeletionsSince(SCOPE));
+
+        engine.merge(SCOPE, Collections.singletonList(TestObject.create("d", 600)), Collections.singletonList(TestObject.tombstone("e", 700)));
+        assertEquals(new Date(600), engine.getObjectsSince(SCOPE));
+        assertEquals(new Date(700), engine.getDeletionsSince(SCOPE));
+    }
+
+    @Test
+    public void merge_dropsObjectsPastTheLimit() {
+        engine.seed(SCOPE, Arrays.asList(TestObject.create("a", 100), TestObject.create("b", 200), TestObject.create("c", 300)));
+
+        engine.merge(SCOPE, Collections.singletonList(TestObject.create("d", 400)), new ArrayList<>());
+        assertEquals(Arrays.asList("d", "c", "b"), getIds(engine.getObjects(SCOPE)));
+
+        // the dropped object isn't brought back when a newer one is deleted
+        engine.merge(SCOPE, new ArrayList<>(), Collections.singletonList(TestObject.tombstone("d", 500)));
+        assertEquals(Arrays.asList("c", "b"), getIds(engine.getObjects(SCOPE)));
+    }
+
+    @Test
+    public void put_addsPushedChangesWithoutMovingTheHighWaterMark() {
+        engine.seed(SCOPE, Collections.singletonList(TestObject.create("a", 100)));
+
+        engine.put(SCOPE, TestObject.create("b", 900));
+
+        assertEquals(Arrays.asList("b", "a"), getIds(engine.getObjects(SCOPE)));
+        // the next sync still reads everything changed after the seed
+        assertEquals(new Date(100), engine.getObjectsSince(SCOPE));
+    }
+
+    @Test
+    public void remove_dropsTheObjectFromTheScope() {
+        engine.seed(SCOPE, Arrays.asList(TestObject.create("a", 100), TestObject.create("b", 200)));
+
+        engine.remove(SCOPE, "b");
+
+        assertEquals(Collections.singletonList("a"), getIds(engine.getObjects(SCOPE)));
+    }
+
+    @Test
+    public void changes_areIgnoredForScopesThatWereNeverSeeded() {
+        engine.put(SCOPE, TestObject.create("a", 100));
+        engine.merge(SCOPE, Collections.singletonList(TestObject.create("b", 200)), new ArrayList<>());
+
+        assertTrue(engine.getObjects(SCOPE).isEmpty());
+        assertNull(engine.getObjectsSince(SCOPE));
+    }
+
+    private static List<String> getIds(List<TestObject> objects) {
+        List<String> ids = new ArrayList<>();
+        for (TestObject object : objects) {
+            ids.add(object.getObjectId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.travelguide.repositories;
+
+import com.parse.ParseClassName;
+import com.parse.ParseObject;
+
+import java.util.Date;
+
+/**
+ * object with the id and timestamps the server would set, so repositories can be tested without fetching
+ */
+@ParseClassName("TestObject")
+public class TestObject extends ParseObject {
+
+    private Date createdAt;
+    private Date updatedAt;
+
+    public static TestObject create(String objectId, long updatedAt) {
+        ParseObject.registerSubclass(TestObject.class);
+
+        TestObject object = new TestObject();
+        object.setObjectId(objectId);
+        object.createdAt = new Date(updatedAt);
+        object.updatedAt = new Date(updatedAt);
+        return object;
+    }
+
+    // a tombstone the server writes when the target is deleted
+    public static TestObject tombstone(String targetID, long createdAt) {
+        TestObject tombstone = create("tombstone-" + targetID, createdAt);
+        tombstone.put("targetID", targetID);
+        return tombstone;
+    }
+
+    @Override
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+
+    @Override
+    public Date getUpdatedAt() {
+        return updatedAt;
+    }
+}
@@ -1,175 +1,969 @@
 const { async } = require("parse/lib/node/Storage");
+const crypto = require("crypto");
 
 // references to the different Parse classes
 const Location = Parse.Object.extend("Location");
 const Guide = Parse.Object.extend("Guide");
+const Media = Parse.Object.extend("Media");
+const Activity = Parse.Object.extend("Activity");
+const Tombstone = Parse.Object.extend("Tombstone");
+const PendingNotification = Parse.Object.extend("PendingNotification");
 
 
+// follows read from the database per page
+const FOLLOW_PAGE_SIZE = 1000;
+
+// returns the push channel the followers of a location are subscribed to
+function getLocationChannel(locationID) {
+    return "location_" + locationID;
+}
+
+// users targeted by a single push of the fan out job, keeps each installation query small
+const PUSH_BATCH_SIZE = 500;
+
+// set until subscribeFollowersToChannels has run, notifications then go to followers by user instead of by channel
+const NOTIFY_FOLLOWERS_BY_USER = process.env.NOTIFY_FOLLOWERS_BY_USER == "true";
+
+// new guides posted to a location within this window are sent as one notification
+const DIGEST_WINDOW_MS = (parseInt(process.env.DIGEST_WINDOW_SECONDS, 10) || 120) * 1000;
+
+// a run of sendNotificationDigests holds the rows it claimed for this long, rows of a run that crashed are sent by a later one
+const DIGEST_CLAIM_LEASE_MS = 10 * 60 * 1000;
+
+// sends the notification about the new guides of a location, throws when it couldn't be sent
+async function sendDigest(locationID, notifications) {
+
+    var locationName = notifications[0].get("locationName");
+    var authors = new Set(notifications.filter(notification => notification.has("authorID")).map(notification => notification.get("authorID")));
+
+    // an author is only left out when the digest is about nothing but their own guides
+    var excludedAuthors = (authors.size == 1) ? Array.from(authors) : [];
+
+    // devices that aren't subscribed to the channels yet are reached through the followers instead
+    if (NOTIFY_FOLLOWERS_BY_USER) {
+        await Parse.Cloud.startJob("fanOutFollowNotification", {
+            locationID: locationID,
+            locationName: locationName,
+            numGuides: notifications.length,
+            authors: excludedAuthors
+        });
+        return;
+    }
+
+    // followers subscribe to the location channel
+    const pushQuery = new Parse.Query(Parse.Installation);
+    pushQuery.equalTo("channels", getLocationChannel(locationID));
+
+    if (excludedAuthors.length > 0) {
+        pushQuery.notContainedIn("userID", excludedAuthors.map(id => Parse.User.createWithoutData(id)));
+    }
+
+    await Parse.Push.send({
+        where: pushQuery,
+        data: getDigestPushData(locationName, notifications.length)
+    }, { useMasterKey: true });
+}
+
+// claims pending notifications for this run and returns the ones it got
+// the increment is applied atomically by the database, so of two runs that read the same count only the one whose
+// increment lands first gets it back one higher
+async function claimNotifications(notifications) {
+
+    var claimed = await Promise.all(notifications.map(async notification => {
+
+        var count = notification.get("claims") || 0;
+        notification.increment("claims");
+        notification.set("claimedAt", new Date());
+
+        try {
+            await notification.save(null, { useMasterKey: true });
+        } catch (error) {
+            // another run already sent and deleted it
+            return false;
+        }
+        return notification.get("claims") == count + 1;
+    }));
+
+    return notifications.filter((notification, i) => claimed[i]);
+}
+
+// lets a later run send notifications this run couldn't
+async function releaseNotifications(notifications) {
+    notifications.forEach(notification => notification.unset("claimedAt"));
+    await Parse.Object.saveAll(notifications, { useMasterKey: true });
+}
+
+// returns the title and alert of a notification about new guides
+function getDigestPushData(locationName, numGuides) {
+    return {
+        title: (numGuides == 1) ? "New Guide" : "New Guides",
+        alert: (numGuides == 1)
+            ? "A new guide has been added to " + locationName + "."
+            : numGuides + " new guides at " + locationName + ".",
+    };
+}
+
+// pushes a new guide notification to every follower of a location, paging through the follows
+// used instead of the location channel until every follower's devices are subscribed to it
+Parse.Cloud.job("fanOutFollowNotification", async (request) => {
+
+    var locationID = request.params.locationID;
+    var locationName = request.params.locationName;
+    var numGuides = request.params.numGuides || 1;
+    var authors = new Set(request.params.authors || []);
+
+    var startTime = Date.now();
+    var notifiedUsers = new Set();
+    var pendingUsers = [];
+    var numPushes = 0;
+    var lastFollowId = null;
+
+    // sends a push to the devices of a batch of users
+    async function sendPushBatch(userIds) {
+
+        const pushQuery = new Parse.Query(Parse.Installation);
+        pushQuery.containedIn("userID", userIds.map(id => Parse.User.createWithoutData(id)));
+
+        await Parse.Push.send({
+            where: pushQuery,
+            data: getDigestPushData(locationName, numGuides)
+        }, { useMasterKey: true });
+
+        numPushes++;
+        request.message(notifiedUsers.size + " followers notified in " + numPushes + " batches");
+    }
+
+    // pages through the followers in objectId order so no follower is skipped or repeated
+    while (true) {
+
+        const followQuery = new Parse.Query(Activity);
+        followQuery.equalTo("locationID", Location.createWithoutData(locationID));
+        followQuery.equalTo("type", "follow");
+        followQuery.select("userID");
+        followQuery.ascending("objectId");
+        followQuery.limit(FOLLOW_PAGE_SIZE);
+
+        if (lastFollowId != null) {
+            followQuery.greaterThan("objectId", lastFollowId);
+        }
+
+        var follows = await followQuery.find({ useMasterKey: true });
+
+        for (const follow of follows) {
+
+            var followingUser = follow.get("userID");
+
+            // skips the authors and users that follow the location more than once
+            if (followingUser == null || authors.has(followingUser.id) || notifiedUsers.has(followingUser.id)) {
+                continue;
+            }
+
+            notifiedUsers.add(followingUser.id);
+            pendingUsers.push(followingUser.id);
+
+            if (pendingUsers.length == PUSH_BATCH_SIZE) {
+                await sendPushBatch(pendingUsers);
+                pendingUsers = [];
+            }
+        }
+
+        if (follows.length < FOLLOW_PAGE_SIZE) {
+            break;
+        }
+        lastFollowId = follows[follows.length - 1].id;
+    }
+
+    if (pendingUsers.length > 0) {
+        await sendPushBatch(pendingUsers);
+    }
+
+    var seconds = Math.max((Date.now() - startTime) / 1000, 0.001);
+    return notifiedUsers.size + " followers notified in " + numPushes + " batches (" + Math.round(notifiedUsers.size / seconds) + " followers/s)";
+});
+
 // sends the follos notification
-Parse.Cloud.define("sendFollowNotification", function (request) {
+Parse.Cloud.define("sendFollowNotification", async (request) => {
 
     // gets variables from parameters
     var locationID = request.params.locationID;
     var locationName = request.params.locationName;
-    var userID = request.params.userID;
+    var userID = (request.user != null) ? request.user.id : request.params.userID;
+
+    if (typeof locationID != 'string') {
+        throw new Parse.Error(Parse.Error.INVALID_QUERY, "locationID is required");
+    }
+
+    // every new guide is stored until sendNotificationDigests finds the window of its location has passed,
+    // so notifications survive restarts and are grouped the same whichever server instance took the request
+    var notification = new PendingNotification();
+    notification.set("locationID", locationID);
+    notification.set("locationName", locationName);
+    if (typeof userID == 'string') {
+        notification.set("authorID", userID);
+    }
+    notification.setACL(new Parse.ACL());
+    await notification.save(null, { useMasterKey: true });
+
+    return "Notification Queued";
+});
 
-    console.log(locationID);
-    console.log(locationName);
-    console.log(userID);
+Parse.Cloud.beforeSave("PendingNotification", (request) => {
+    if (!request.master) {
+        throw new Parse.Error(Parse.Error.OPERATION_FORBIDDEN, "pending notifications are written by the server");
+    }
+});
+
+// sends one notification per location whose oldest pending guide has waited out the window
+// scheduled to run every minute, the window is measured from the first guide so later ones join it
+// runs can overlap, every row is claimed before it is sent and only deleted once the notification went out
+Parse.Cloud.job("sendNotificationDigests", async (request) => {
 
-    // references to the different Parse classes
-    const Location = Parse.Object.extend("Location");
-    const Activity = Parse.Object.extend("Activity");
+    var now = new Date();
+    var cutoff = new Date(now.getTime() - DIGEST_WINDOW_MS);
 
-    // Find location being sent
-    const query = new Parse.Query(Location);
+    // rows claimed by a run that is still inside its lease are left to it
+    const unclaimedQuery = new Parse.Query(PendingNotification);
+    unclaimedQuery.doesNotExist("claimedAt");
 
-    // change this
-    query.equalTo("objectId", locationID);
-    query
-        .find()
-        .then(results => {
+    const expiredQuery = new Parse.Query(PendingNotification);
+    expiredQuery.lessThan("claimedAt", new Date(now.getTime() - DIGEST_CLAIM_LEASE_MS));
 
-            var followed;
+    // groups the pending guides by location, guides posted while the job runs wait for the next run
+    const digests = new Map();
+    const pendingQuery = Parse.Query.or(unclaimedQuery, expiredQuery);
+    pendingQuery.lessThanOrEqualTo("createdAt", now);
 
-            results.forEach(result => {
-                console.log(result.get("placeID"));
-                followed = result;
-            });
+    await pendingQuery.eachBatch(async (notifications) => {
+        notifications.forEach(notification => {
 
-            // if there are users following the usersuser is
-            if (typeof followed != 'undefined') {
-                getFollowingUsers(followed);
+            var locationID = notification.get("locationID");
+            if (!digests.has(locationID)) {
+                digests.set(locationID, { firstAt: notification.createdAt, rows: [] });
             }
-        })
-        .catch(error => {
-            console.log(error);
+
+            var digest = digests.get(locationID);
+            if (notification.createdAt < digest.firstAt) {
+                digest.firstAt = notification.createdAt;
+            }
+            digest.rows.push(notification);
         });
+    }, { batchSize: FOLLOW_PAGE_SIZE, useMasterKey: true });
+
+    var numSent = 0;
+    var numFailed = 0;
+    for (const [locationID, digest] of digests) {
+
+        if (digest.firstAt > cutoff) {
+            continue;
+        }
+
+        var claimed = await claimNotifications(digest.rows);
+        if (claimed.length == 0) {
+            continue;
+        }
+
+        try {
+            await sendDigest(locationID, claimed);
+        } catch (error) {
+            console.log(error);
+            await releaseNotifications(claimed);
+            numFailed++;
+            continue;
+        }
+        await Parse.Object.destroyAll(claimed, { useMasterKey: true });
+
+        numSent++;
+        request.message(numSent + " notifications sent");
+    }
 
+    return numSent + " notifications sent, " + numFailed + " failed";
+});
 
+// subscribes the devices of users that followed locations before channels were used
+Parse.Cloud.job("subscribeFollowersToChannels", async (request) => {
 
-    function getFollowingUsers(followed) {
+    var numFollows = 0;
+    var lastFollowId = null;
 
-        // test console
-        console.log(JSON.parse(JSON.stringify(followed.get("coordinates"))))
+    // pages through the follows in objectId order so none is skipped or repeated
+    while (true) {
 
         const followQuery = new Parse.Query(Activity);
-        followQuery.select("userID");
-        followQuery.select("locationID");
-        followQuery.equalTo("locationID", followed);
-        followQuery
-            .find()
-            .then(follows => {
+        followQuery.equalTo("type", "follow");
+        followQuery.select("userID", "locationID");
+        followQuery.ascending("objectId");
+        followQuery.limit(FOLLOW_PAGE_SIZE);
 
-                var users = [];
-                console.log(follows.length)
+        if (lastFollowId != null) {
+            followQuery.greaterThan("objectId", lastFollowId);
+        }
 
-                follows.forEach(follow => {
+        var follows = await followQuery.find({ useMasterKey: true });
 
-                    var followingUserId = follow.attributes.userID.id;
+        // groups the channels by user so each user's installations are saved once
+        const channelsByUser = new Map();
+        follows.forEach(follow => {
 
-                    // if the user id is valid and the user wasn't the one that added the new post
-                    if (typeof followingUserId != 'undefined' && followingUserId != userID) {
-                        users.push(followingUserId);
-                    }
-                });
+            if (follow.get("userID") == null || follow.get("locationID") == null) {
+                return;
+            }
 
-                // if there are users following this location
-                if (users.length > 0) {
-                    pushNotifications(users);
-                }
-            })
-            .catch(error => {
-                console.log(error);
-            });
+            var userId = follow.get("userID").id;
+            if (!channelsByUser.has(userId)) {
+                channelsByUser.set(userId, []);
+            }
+            channelsByUser.get(userId).push(getLocationChannel(follow.get("locationID").id));
+        });
+
+        const installationQuery = new Parse.Query(Parse.Installation);
+        installationQuery.containedIn("userID", Array.from(channelsByUser.keys()).map(id => Parse.User.createWithoutData(id)));
+        installationQuery.limit(FOLLOW_PAGE_SIZE * 10);
+
+        var installations = await installationQuery.find({ useMasterKey: true });
+
+        installations.forEach(installation => {
+            installation.addAllUnique("channels", channelsByUser.get(installation.get("userID").id));
+        });
+
+        await Parse.Object.saveAll(installations, { useMasterKey: true });
+
+        numFollows += follows.length;
+        request.message(numFollows + " follows subscribed");
+
+        if (follows.length < FOLLOW_PAGE_SIZE) {
+            break;
+        }
+        lastFollowId = follows[follows.length - 1].id;
     }
 
-    function pushNotifications(users) {
+    return numFollows + " follows subscribed";
+});
+
+// weights used to rank trending locations
+const FOLLOWER_WEIGHT = 0.35;
+const GUIDE_WEIGHT = 0.5;
+const LIKE_WEIGHT = 0.15;
 
-        // ensures that it only selects the users in the array
-        const userQuery = new Parse.Query(Parse.User);
-        userQuery.containedIn('objectId', users);
+// a like, follow or guide counts half as much after this long
+const TREND_HALF_LIFE_MS = 7 * 24 * 60 * 60 * 1000;
 
-        // Find devices associated with these users
-        const pushQuery = new Parse.Query(Parse.Installation);
-        pushQuery.matchesQuery('userID', userQuery);
-        Parse.Push.send({
-            where: pushQuery,
-            data: {
-                title: "New Guide",
-                alert: "A new guide has been added to " + locationName + ".",
-            }
-        }, { useMasterKey: true });
+// trend scores are stored relative to this date so they never have to be decayed in place
+// scores overflow after about 1000 half-lives, the epoch has to be moved forward and every score rescaled before then
+const TREND_EPOCH_MS = Date.UTC(2021, 6, 1);
+
+// rows fetched per page by the batched counting queries, every page is read so busy locations aren't undercounted
+const MAX_GUIDE_SCAN = 10000;
+
+// returns the weight of some follows, guides and likes before any decay
+function getRank(followers, numGuides, totalLikes) {
+    return (FOLLOWER_WEIGHT * followers) + (GUIDE_WEIGHT * numGuides) + (LIKE_WEIGHT * totalLikes);
+}
+
+// returns how much an event that happened at the given time adds to a trend score
+function getTrendBoost(time) {
+    return Math.pow(2, (time - TREND_EPOCH_MS) / TREND_HALF_LIFE_MS);
+}
+
+// returns the trend score decayed to the given time
+function getDecayedScore(trendScore, time) {
+    return trendScore / getTrendBoost(time);
+}
+
+// returns what a like or follow added to the trend score of its location when it was saved
+// rows saved before the boost was recorded are taken at the boost of their creation
+function getActivityTrend(activity) {
+    var boost = activity.get("trendBoost") || getTrendBoost(activity.createdAt.getTime());
+    return (activity.get("type") == "follow" ? getRank(1, 0, 0) : getRank(0, 0, 1)) * boost;
+}
+
+// returns what a guide and the likes it got added to the trend score of its location
+function getGuideTrend(guide) {
+    var boost = guide.get("trendBoost") || getTrendBoost(guide.createdAt.getTime());
+    var likesTrend = guide.has("likesTrendScore") ? guide.get("likesTrendScore") : getRank(0, 0, guide.get("likes") || 0) * boost;
+    return (getRank(0, 1, 0) * boost) + likesTrend;
+}
+
+// atomically updates the counters and trend score of a location
+async function incrementLocationCounters(location, followers, numGuides, totalLikes, trendChange) {
+
+    if (typeof location == 'undefined' || location == null || (followers == 0 && numGuides == 0 && totalLikes == 0 && trendChange == 0)) {
+        return;
+    }
+
+    const counters = Location.createWithoutData(location.id);
+
+    if (followers != 0) {
+        counters.increment("followers", followers);
+    }
+    if (numGuides != 0) {
+        counters.increment("numGuides", numGuides);
+    }
+    if (totalLikes != 0) {
+        counters.increment("totalLikes", totalLikes);
+    }
+    counters.increment("trendScore", trendChange);
+    counters.set("trendUpdatedAt", new Date());
+
+    await counters.save(null, { useMasterKey: true });
+}
+
+// returns the author fields saved on guides, so rows are shown without fetching the author
+function getAuthorSnapshot(user) {
+
+    var avatar = user.get("avatar");
+
+    return {
+        authorName: user.get("username"),
+        authorAvatarUrl: avatar ? avatar.url() : null,
+        authorAvatarVersion: user.get("avatarVersion") || 0
+    };
+}
 
+// the snapshot of a guide is always taken from its author, whatever the client sent
+// the trend a guide added is recorded on it, so deleting it removes exactly that much
+// likes are counted from the like activities, clients can't write them
+Parse.Cloud.beforeSave("Guide", async (request) => {
+
+    const guide = request.object;
+
+    if (guide.isNew()) {
+        guide.set("likes", 0);
+        guide.set("trendBoost", getTrendBoost(Date.now()));
+        guide.set("likesTrendScore", 0);
+    } else if (!request.master && guide.dirty("likes")) {
+        throw new Parse.Error(Parse.Error.OPERATION_FORBIDDEN, "likes are counted by the server");
+    } else if (!request.master && (guide.dirty("trendBoost") || guide.dirty("likesTrendScore"))) {
+        throw new Parse.Error(Parse.Error.OPERATION_FORBIDDEN, "trend fields are set by the server");
     }
-    return "Notification Sent";
+
+    if (!guide.isNew() && !guide.dirty("author")) {
+        return;
+    }
+
+    var author = guide.get("author");
+    if (author == null) {
+        throw new Parse.Error(Parse.Error.VALIDATION_ERROR, "author is required");
+    }
+
+    await author.fetch({ useMasterKey: true });
+    guide.set(getAuthorSnapshot(author));
 });
 
-async function getLocations(lat, long) {
+// a new avatar gets a new version, so guides can tell which snapshot is newer
+Parse.Cloud.beforeSave(Parse.User, (request) => {
 
-    var locationsData = [];
+    if (request.object.dirty("avatar")) {
+        request.object.increment("avatarVersion");
+    }
+});
 
-    // Find location being sent
-    const locationQuery = new Parse.Query(Location);
+// copies a new username or avatar to the snapshots on the user's guides
+Parse.Cloud.afterSave(Parse.User, async (request) => {
 
-    if (typeof lat != 'undefined' && typeof long != 'undefined') {
-        locationQuery.withinMiles("coordinates", new Parse.GeoPoint(lat, long), 50);
-        console.log("close location");
+    const user = request.object;
+    const original = request.original;
+
+    if (typeof original == 'undefined') {
+        return;
+    }
+    if (original.get("username") == user.get("username") && original.get("avatarVersion") == user.get("avatarVersion")) {
+        return;
     }
 
-    locations = await locationQuery.find();
-    locations.forEach(location => {
+    await updateAuthorSnapshots(user);
+});
 
-        // creates new object
-        let newLocation = new Object();
+// rewrites the snapshot of every guide of the user that doesn't match it
+async function updateAuthorSnapshots(user) {
 
-        newLocation.id = location.id;
-        newLocation.followers = location.attributes.followers;
-        newLocation.numGuides = 0;
-        newLocation.numLikes = 0;
-        newLocation.location = location;
-        addNewLocation(newLocation);
-    });
+    var snapshot = getAuthorSnapshot(user);
+
+    // guides already carrying a newer avatar are left alone in case two saves overlap
+    const versionQuery = new Parse.Query(Guide);
+    versionQuery.lessThanOrEqualTo("authorAvatarVersion", snapshot.authorAvatarVersion);
+
+    // guides written before the snapshot existed
+    const legacyQuery = new Parse.Query(Guide);
+    legacyQuery.doesNotExist("authorAvatarVersion");
+
+    const guideQuery = Parse.Query.or(versionQuery, legacyQuery);
+    guideQuery.equalTo("author", user);
+
+    var numUpdated = 0;
+    await guideQuery.eachBatch(async (guides) => {
+
+        var outdated = guides.filter(guide => guide.get("authorName") != snapshot.authorName
+            || guide.get("authorAvatarUrl") != snapshot.authorAvatarUrl
+            || guide.get("authorAvatarVersion") != snapshot.authorAvatarVersion);
+
+        outdated.forEach(guide => guide.set(snapshot));
+        await Parse.Object.saveAll(outdated, { useMasterKey: true });
+        numUpdated += outdated.length;
+    }, { batchSize: FOLLOW_PAGE_SIZE, useMasterKey: true });
+
+    return numUpdated;
+}
+
+// sets the author snapshot on guides written before it existed
+Parse.Cloud.job("backfillAuthorSnapshots", async (request) => {
+
+    var numUpdated = 0;
+    const userQuery = new Parse.Query(Parse.User);
+
+    await userQuery.eachBatch(async (users) => {
+        for (const user of users) {
+            numUpdated += await updateAuthorSnapshots(user);
+        }
+        request.message(numUpdated + " guides updated");
+    }, { batchSize: 100, useMasterKey: true });
+
+    return numUpdated + " guides updated";
+});
+
+// keeps the guide count of the guide's location up to date
+// likes are added and removed with their Activity rows, other edits like a new author snapshot don't change the counters
+Parse.Cloud.afterSave("Guide", async (request) => {
+
+    const guide = request.object;
+
+    // a new guide was posted
+    if (typeof request.original == 'undefined') {
+        await incrementLocationCounters(guide.get("locationID"), 0, 1, 0, getGuideTrend(guide));
+    }
+});
+
+// counters and trend of a location, only written by the triggers above and the backfill
+// trending sorts on the stored trendScore, so a client writing it could pin a location to the top
+const LOCATION_COUNTERS = ["followers", "numGuides", "totalLikes", "trendScore", "trendUpdatedAt"];
+
+Parse.Cloud.beforeSave("Location", (request) => {
+
+    if (request.master) {
+        return;
+    }
+
+    const location = request.object;
+    if (LOCATION_COUNTERS.some(key => location.dirty(key))) {
+        throw new Parse.Error(Parse.Error.OPERATION_FORBIDDEN, "location counters are set by the server");
+    }
+});
+
+Parse.Cloud.afterDelete("Guide", async (request) => {
+
+    const guide = request.object;
+    var likes = guide.get("likes") || 0;
+
+    // removes what the guide and its likes added, as recorded on the guide
+    await incrementLocationCounters(guide.get("locationID"), 0, -1, -likes, -getGuideTrend(guide));
 
-    // add new locations to the array
-    function addNewLocation(newLocation) {
-        locationsData.push(newLocation);
+    // clients syncing the guides of the location drop the deleted guide
+    await addTombstone(guide, guide.get("locationID").id);
+});
+
+Parse.Cloud.afterDelete("Location", async (request) => {
+    await addTombstone(request.object, null);
+});
+
+// tombstones older than this are purged, clients that last synced before then fetch everything again
+const TOMBSTONE_TTL_MS = 30 * 24 * 60 * 60 * 1000;
+
+// records a deleted object so clients can remove it from results synced by updatedAt
+async function addTombstone(object, scope) {
+
+    var tombstone = new Tombstone();
+    tombstone.set("targetClass", object.className);
+    tombstone.set("targetID", object.id);
+    if (scope != null) {
+        tombstone.set("scope", scope);
     }
 
-    return locationsData;
+    // readable by every client, written only by the server
+    var acl = new Parse.ACL();
+    acl.setPublicReadAccess(true);
+    tombstone.setACL(acl);
+
+    await tombstone.save(null, { useMasterKey: true });
 }
 
-async function getFinalLocations(lat, long) {
+Parse.Cloud.beforeSave("Tombstone", (request) => {
+    if (!request.master) {
+        throw new Parse.Error(Parse.Error.OPERATION_FORBIDDEN, "tombstones are written by the server");
+    }
+});
 
-    var finalLocations = await getLocations(lat, long);
-    console.log(finalLocations.length);
+// deletes the tombstones every client has had time to sync
+Parse.Cloud.job("purgeTombstones", async (request) => {
 
-    for (var i = 0; i < finalLocations.length; i++) {
+    const tombstoneQuery = new Parse.Query(Tombstone);
+    tombstoneQuery.lessThan("createdAt", new Date(Date.now() - TOMBSTONE_TTL_MS));
 
-        // Find Guides that have been posted to the location
-        const guideQuery = new Parse.Query(Guide);
-        guideQuery.equalTo("locationID", finalLocations[i].location);
-        let guides = await guideQuery.find();
+    var numRemoved = 0;
+    await tombstoneQuery.eachBatch(async (tombstones) => {
+        await Parse.Object.destroyAll(tombstones, { useMasterKey: true });
+        numRemoved += tombstones.length;
+    }, { batchSize: FOLLOW_PAGE_SIZE, useMasterKey: true });
+
+    return numRemoved + " tombstones removed";
+});
 
+// activity types and the pointer each one refers to
+const ACTIVITY_TARGETS = { like: "guideID", follow: "locationID" };
+
+// returns the key identifying what a user liked or followed, activities with the same key are duplicates
+function getActivityKey(activity) {
+
+    var type = activity.get("type");
+    var user = activity.get("userID");
+    var target = activity.get(ACTIVITY_TARGETS[type]);
+
+    return user.id + ":" + type + ":" + target.id;
+}
+
+// a user can only like a guide or follow a location once
+Parse.Cloud.beforeSave("Activity", async (request) => {
+
+    const activity = request.object;
+
+    // older clients save likes without a type
+    if (typeof activity.get("type") == 'undefined' && activity.get("guideID") != null) {
+        activity.set("type", "like");
+    }
+
+    var type = activity.get("type");
+    if (!(type in ACTIVITY_TARGETS)) {
+        throw new Parse.Error(Parse.Error.VALIDATION_ERROR, "type must be like or follow");
+    }
+    if (activity.get("userID") == null || activity.get(ACTIVITY_TARGETS[type]) == null) {
+        throw new Parse.Error(Parse.Error.VALIDATION_ERROR, "userID and " + ACTIVITY_TARGETS[type] + " are required");
+    }
+
+    // existing rows are only changed by the migration
+    if (!activity.isNew()) {
+        if (!request.master && activity.dirty("trendBoost")) {
+            throw new Parse.Error(Parse.Error.OPERATION_FORBIDDEN, "trendBoost is set by the server");
+        }
+        return;
+    }
+
+    // the boost the like or follow adds now, its removal takes off the same amount
+    activity.set("trendBoost", getTrendBoost(Date.now()));
+
+    // this answers the common case with a clear error, two saves racing past it are stopped by the unique indexes
+    // from migrations/storage_indexes.js, which parse-server reports as the same DUPLICATE_VALUE error
+    const duplicateQuery = new Parse.Query(Activity);
+    duplicateQuery.equalTo("userID", activity.get("userID"));
+    duplicateQuery.equalTo("type", type);
+    duplicateQuery.equalTo(ACTIVITY_TARGETS[type], activity.get(ACTIVITY_TARGETS[type]));
+
+    if (await duplicateQuery.first({ useMasterKey: true })) {
+        throw new Parse.Error(Parse.Error.DUPLICATE_VALUE, "already " + (type == "like" ? "liked" : "followed"));
+    }
+});
+
+// sets the type of likes saved without one and removes duplicate likes and follows
+Parse.Cloud.job("migrateActivities", async (request) => {
+
+    var seenKeys = new Set();
+    var numActivities = 0;
+    var numTyped = 0;
+    var numRemoved = 0;
+    var lastActivityId = null;
+
+    // pages through the activities in objectId order, the oldest copy of a duplicate is kept
+    while (true) {
+
+        const activityQuery = new Parse.Query(Activity);
+        activityQuery.ascending("objectId");
+        activityQuery.limit(FOLLOW_PAGE_SIZE);
+
+        if (lastActivityId != null) {
+            activityQuery.greaterThan("objectId", lastActivityId);
+        }
+
+        var activities = await activityQuery.find({ useMasterKey: true });
+
+        var typed = [];
+        var duplicates = [];
+
+        activities.forEach(activity => {
+
+            // likes were saved with only a guide
+            if (typeof activity.get("type") == 'undefined') {
+                activity.set("type", (activity.get("guideID") != null) ? "like" : "follow");
+                typed.push(activity);
+            }
+
+            var type = activity.get("type");
+            if (activity.get("userID") == null || activity.get(ACTIVITY_TARGETS[type]) == null) {
+                duplicates.push(activity);
+                return;
+            }
 
+            var key = getActivityKey(activity);
+            if (seenKeys.has(key)) {
+                duplicates.push(activity);
+            } else {
+                seenKeys.add(key);
+            }
+        });
+
+        typed = typed.filter(activity => !duplicates.includes(activity));
+
+        await Parse.Object.saveAll(typed, { useMasterKey: true });
+        await Parse.Object.destroyAll(duplicates, { useMasterKey: true });
+
+        numActivities += activities.length;
+        numTyped += typed.length;
+        numRemoved += duplicates.length;
+        request.message(numActivities + " activities checked");
+
+        if (activities.length < FOLLOW_PAGE_SIZE) {
+            break;
+        }
+        lastActivityId = activities[activities.length - 1].id;
+    }
+
+    return numActivities + " activities checked, " + numTyped + " typed, " + numRemoved + " removed";
+});
+
+// adds a like and its trend to its guide and the guide's location, a negative sign removes them
+async function addLikeTrend(like, sign) {
+
+    const guide = like.get("guideID");
+    try {
+        await guide.fetch({ useMasterKey: true });
+    } catch (error) {
+        // a deleted guide already took its likes off the location
+        return;
+    }
+
+    var trend = getActivityTrend(like);
+
+    // guides posted before the likes trend was recorded start from what the recount gave them
+    if (!guide.has("likesTrendScore")) {
+        guide.set("likesTrendScore", getRank(0, 0, guide.get("likes") || 0) * getTrendBoost(guide.createdAt.getTime()) + sign * trend);
+    } else {
+        guide.increment("likesTrendScore", sign * trend);
+    }
+    guide.increment("likes", sign);
+    await guide.save(null, { useMasterKey: true });
+
+    await incrementLocationCounters(guide.get("locationID"), 0, 0, sign, sign * trend);
+}
+
+// keeps the follower count and trend score of a location up to date
+Parse.Cloud.afterSave("Activity", async (request) => {
+
+    const activity = request.object;
+
+    if (typeof request.original != 'undefined') {
+        return;
+    }
+
+    if (activity.get("type") == "follow") {
+        await incrementLocationCounters(activity.get("locationID"), 1, 0, 0, getActivityTrend(activity));
+    } else if (activity.get("type") == "like") {
+        await addLikeTrend(activity, 1);
+    }
+});
+
+Parse.Cloud.afterDelete("Activity", async (request) => {
+
+    const activity = request.object;
+
+    if (activity.get("type") == "follow") {
+        await incrementLocationCounters(activity.get("locationID"), -1, 0, 0, -getActivityTrend(activity));
+    } else if (activity.get("type") == "like") {
+        await addLikeTrend(activity, -1);
+    }
+});
+
+// recounts the followers, guides and likes of the locations with one query per class
+async function countLocationActivity(locations) {
+
+    const countsById = new Map();
+    locations.forEach(location => countsById.set(location.id, { followers: 0, numGuides: 0, totalLikes: 0, trendScore: 0 }));
+
+    // Find every guide posted to one of the locations in a single paged query
+    const guideQuery = new Parse.Query(Guide);
+    guideQuery.containedIn("locationID", locations);
+    guideQuery.select("locationID", "likes", "trendBoost", "likesTrendScore");
+
+    await guideQuery.eachBatch(guides => {
         guides.forEach(guide => {
-            finalLocations[i].numGuides = guides.length;
+            var counts = countsById.get(guide.get("locationID").id);
+            var likes = guide.get("likes") || 0;
+
+            counts.numGuides += 1;
+            counts.totalLikes += likes;
+            counts.trendScore += getGuideTrend(guide);
+        });
+    }, { batchSize: MAX_GUIDE_SCAN, useMasterKey: true });
 
-            // gets the number of likes that has been added to this location
-            var likesTotal = 0;
-            guides.forEach(guide => {
-                likesTotal += guide.attributes.likes;
-            });
+    // Find every follow of the locations in a single paged query
+    const followQuery = new Parse.Query(Activity);
+    followQuery.containedIn("locationID", locations);
+    followQuery.equalTo("type", "follow");
+    followQuery.select("locationID", "type", "trendBoost");
 
-            finalLocations[i].numLikes = likesTotal;
-            // console.log(finalLocations[i]);
+    await followQuery.eachBatch(follows => {
+        follows.forEach(follow => {
+            var counts = countsById.get(follow.get("locationID").id);
+
+            counts.followers += 1;
+            counts.trendScore += getActivityTrend(follow);
         });
+    }, { batchSize: MAX_GUIDE_SCAN, useMasterKey: true });
+
+    return countsById;
+}
 
+// sets the counters of every existing location, run once before relying on the triggers
+Parse.Cloud.job("backfillLocationCounters", async (request) => {
+
+    var updated = 0;
+    const locationQuery = new Parse.Query(Location);
+
+    await locationQuery.eachBatch(async locations => {
+
+        var countsById = await countLocationActivity(locations);
+
+        locations.forEach(location => {
+            var counts = countsById.get(location.id);
+
+            location.set("followers", counts.followers);
+            location.set("numGuides", counts.numGuides);
+            location.set("totalLikes", counts.totalLikes);
+            location.set("trendScore", counts.trendScore);
+            location.set("trendUpdatedAt", new Date());
+        });
+
+        await Parse.Object.saveAll(locations, { useMasterKey: true });
+
+        updated += locations.length;
+        request.message(updated + " locations updated");
+    }, { batchSize: 100, useMasterKey: true });
+
+    return updated + " locations updated";
+});
+
+// trending locations are searched for within this distance of the user
+const TRENDING_RADIUS_MILES = 50;
+
+// number of trending locations returned
+const TRENDING_LIMIT = 3;
+
+// the response shape sent to clients that ask for it, older clients get a list of {id, rank}
+const TRENDING_RESPONSE_VERSION = 2;
+
+// cells of this many characters are about 39km by 20km, close users share the same results
+const TRENDING_CELL_PRECISION = 4;
+
+// how long trending results are served from memory
+const TRENDING_CACHE_TTL_MS = 60 * 1000;
+
+const GEOHASH_BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz";
+
+// results and pending computations of the trending locations, keyed by cell and radius
+const trendingCache = new Map();
+const trendingInFlight = new Map();
+
+/* returns the geohash cell containing the coordinates and the center of that cell
+ * ref: https://en.wikipedia.org/wiki/Geohash */
+function getGeohashCell(lat, long, precision) {
+
+    var latRange = [-90, 90];
+    var longRange = [-180, 180];
+    var hash = "";
+    var isLong = true;
+    var bits = 0;
+    var index = 0;
+
+    while (hash.length < precision) {
+
+        var range = isLong ? longRange : latRange;
+        var value = isLong ? long : lat;
+        var mid = (range[0] + range[1]) / 2;
+
+        index = index * 2;
+        if (value >= mid) {
+            index += 1;
+            range[0] = mid;
+        } else {
+            range[1] = mid;
+        }
+
+        isLong = !isLong;
+        bits++;
+
+        if (bits == 5) {
+            hash += GEOHASH_BASE32.charAt(index);
+            bits = 0;
+            index = 0;
+        }
+    }
+
+    return {
+        hash: hash,
+        lat: (latRange[0] + latRange[1]) / 2,
+        long: (longRange[0] + longRange[1]) / 2
+    };
+}
+
+// finds the locations with the most recent activity using the scores kept by the triggers
+async function findTrendingLocations(cell) {
+
+    const locationQuery = new Parse.Query(Location);
+
+    if (cell != null) {
+        // unsorted so the results can be ordered by rank instead of distance
+        locationQuery.withinMiles("coordinates", new Parse.GeoPoint(cell.lat, cell.long), TRENDING_RADIUS_MILES, false);
+    }
+
+    // removes locations with no followers, post or likes
+    locationQuery.greaterThan("trendScore", 0);
+
+    // the trendScore index returns the top locations without sorting the rest
+    locationQuery.descending("trendScore");
+    locationQuery.limit(TRENDING_LIMIT);
+
+    return locationQuery.find();
+}
+
+// returns the cached trending locations for the key, only one computation runs per key at a time
+async function getCachedTrendingLocations(key, cell) {
+
+    var cached = trendingCache.get(key);
+    if (typeof cached != 'undefined' && cached.expiresAt > Date.now()) {
+        return cached.locations;
+    }
+
+    // joins a computation that is already running for the same key
+    var pending = trendingInFlight.get(key);
+    if (typeof pending != 'undefined') {
+        return pending;
     }
 
-    return finalLocations;
+    pending = findTrendingLocations(cell).then(locations => {
+        trendingCache.set(key, { locations: locations, expiresAt: Date.now() + TRENDING_CACHE_TTL_MS });
+        return locations;
+    }).finally(() => {
+        trendingInFlight.delete(key);
+    });
+
+    trendingInFlight.set(key, pending);
+    return pending;
 }
 
+// drops expired results so the cache doesn't grow with every cell ever requested
+setInterval(() => {
+    var now = Date.now();
+    trendingCache.forEach((cached, key) => {
+        if (cached.expiresAt <= now) {
+            trendingCache.delete(key);
+        }
+    });
+}, TRENDING_CACHE_TTL_MS).unref();
 
 // returns a list of trending locations
 Parse.Cloud.define("getTrendingLocations", async (request) => {
@@ -177,46 +971,211 @@ Parse.Cloud.define("getTrendingLocations", async (request) => {
     var lat = request.params.locationLat;
     var long = request.params.locationLong;
 
-    console.log(lat);
-    console.log(long);
+    var cell = null;
+    var key = "global";
 
-    var topLocations = await getFinalLocations(lat, long);
+    // users in the same cell are served the results computed from the center of the cell
+    if (typeof lat == 'number' && typeof long == 'number') {
+        cell = getGeohashCell(lat, long, TRENDING_CELL_PRECISION);
+        key = cell.hash + ":" + TRENDING_RADIUS_MILES;
+    }
 
-    // removes locations with no followers, post or likes
-    topLocations = topLocations.filter(topLocation => (topLocation.followers > 0 || topLocation.numGuides > 0 || topLocation.numLikes > 0));
+    var topLocations = await getCachedTrendingLocations(key, cell);
+
+    // full location objects so the client doesn't have to query them again
+    if (request.params.version == TRENDING_RESPONSE_VERSION) {
+        return { version: TRENDING_RESPONSE_VERSION, locations: topLocations };
+    }
+
+    // every score decays at the same rate so only the returned ranks need to be brought up to date
+    var now = Date.now();
+    return topLocations.map(topLocation => ({ id: topLocation.id, rank: getDecayedScore(topLocation.get("trendScore"), now) }));
+});
+
+
+
+// returns the file the user uploaded before whose content has the given sha-256 hash
+// files are only reused per user, so knowing a hash doesn't give out the url of someone else's upload
+Parse.Cloud.define("findMediaByHash", async (request) => {
+
+    var hash = request.params.hash;
+
+    if (request.user == null) {
+        throw new Parse.Error(Parse.Error.SESSION_MISSING, "login is required");
+    }
+    if (typeof hash != 'string') {
+        throw new Parse.Error(Parse.Error.INVALID_QUERY, "hash is required");
+    }
+
+    const mediaQuery = new Parse.Query(Media);
+    mediaQuery.equalTo("hash", hash);
+    mediaQuery.equalTo("owner", request.user);
+
+    var media = await mediaQuery.first({ useMasterKey: true });
+
+    // null tells the client to upload the file
+    return (typeof media != 'undefined') ? media.get("file") : null;
+});
 
-    for (var i = 0; i < topLocations.length; i++) {
-        console.log(topLocations[i]);
+// stores the hash of a newly uploaded file so identical uploads can reuse it
+Parse.Cloud.define("registerMedia", async (request) => {
+
+    var hash = request.params.hash;
+    var file = request.params.file;
+
+    if (request.user == null) {
+        throw new Parse.Error(Parse.Error.SESSION_MISSING, "login is required");
+    }
+    if (typeof hash != 'string' || typeof file == 'undefined') {
+        throw new Parse.Error(Parse.Error.INVALID_QUERY, "hash and file are required");
+    }
+
+    const mediaQuery = new Parse.Query(Media);
+    mediaQuery.equalTo("hash", hash);
+    mediaQuery.equalTo("owner", request.user);
+
+    // the user's first upload of the content wins
+    if (await mediaQuery.first({ useMasterKey: true })) {
+        return "Media exists";
+    }
+
+    // verifies the hash against the stored bytes so a client can't map a hash to another file
+    const response = await Parse.Cloud.httpRequest({ url: file.url() });
+    const fileHash = crypto.createHash("sha256").update(response.buffer).digest("hex");
+
+    if (fileHash != hash) {
+        throw new Parse.Error(Parse.Error.INVALID_VALUE, "hash doesn't match the file");
+    }
+
+    var media = new Media();
+    media.set("hash", hash);
+    media.set("file", file);
+    media.set("owner", request.user);
+
+    // only cloud code can read the hash table
+    media.setACL(new Parse.ACL());
+
+    // two uploads of the same content registered at once are stopped by the unique index from migrations/storage_indexes.js
+    try {
+        await media.save(null, { useMasterKey: true });
+    } catch (error) {
+        if (error.code == Parse.Error.DUPLICATE_VALUE) {
+            return "Media exists";
+        }
+        throw error;
     }
 
+    return "Media registered";
+});
 
+// adds indexes to a class, creating the class with the given fields if it doesn't exist yet
+// keys are the names the fields are stored under in Mongo, pointers are stored as _p_<field>
+async function addIndexes(className, fields, indexes) {
 
-    for (var i = 0; i < topLocations.length; i++) {
+    var schema = new Parse.Schema(className);
+    var existingIndexes = {};
 
-        // removes the location variable as it isn't needed
-        delete topLocations[i].location;
+    try {
+        existingIndexes = (await schema.get()).indexes || {};
+    } catch (error) {
+        fields(schema);
+        await schema.save();
+    }
 
-        /// calculates rank for each of the locations
-        var rank = (0.35 * topLocations[i].followers)
-            + (0.5 * topLocations[i].numGuides) + (0.15 * topLocations[i].numLikes)
+    // indexes created with other keys under the same name are replaced
+    var changedIndexes = Object.keys(indexes).filter(name =>
+        name in existingIndexes && JSON.stringify(existingIndexes[name]) != JSON.stringify(indexes[name]));
 
-        topLocations[i].rank = rank;
+    if (changedIndexes.length > 0) {
+        schema = new Parse.Schema(className);
+        changedIndexes.forEach(name => schema.deleteIndex(name));
+        await schema.update();
+    }
 
-        delete topLocations[i].followers;
-        delete topLocations[i].numGuides;
-        delete topLocations[i].numLikes;
+    // only adds the missing indexes so the job can be run again
+    var newIndexes = Object.keys(indexes).filter(name => !(name in existingIndexes) || changedIndexes.includes(name));
+    if (newIndexes.length == 0) {
+        return;
     }
 
-    // sorts the locations by the rank variable
-    topLocations.sort((a, b) => (a.rank >= b.rank) ? -1 : 1)
+    schema = new Parse.Schema(className);
+    newIndexes.forEach(name => schema.addIndex(name, indexes[name]));
+    await schema.update();
+}
+
+// removes indexes added under names that are no longer used
+async function dropIndexes(className, names) {
 
-    for (var i = 0; i < topLocations.length; i++) {
-        console.log(topLocations[i]);
+    var existingIndexes = (await new Parse.Schema(className).get()).indexes || {};
+    var oldIndexes = names.filter(name => name in existingIndexes);
+    if (oldIndexes.length == 0) {
+        return;
     }
 
+    var schema = new Parse.Schema(className);
+    oldIndexes.forEach(name => schema.deleteIndex(name));
+    await schema.update();
+}
+
+// creates the indexes used by the media lookup, the trending ranking, the activity lookups and the syncs
+Parse.Cloud.job("createIndexes", async (request) => {
+
+    // media is looked up by hash and owner through the unique index from migrations/storage_indexes.js
+    await addIndexes("Media", schema => {
+        schema.addString("hash");
+        schema.addFile("file");
+        schema.addPointer("owner", "_User");
+    }, {});
+    await dropIndexes("Media", ["hash_1"]);
+
+    await addIndexes("Location", schema => {
+        schema.addNumber("trendScore");
+    }, { trendScore_1: { trendScore: -1 } });
+
+    // followers are paged by location and likes by guide
+    // likes and follows are looked up by user and target through the unique indexes from migrations/storage_indexes.js,
+    // the Schema API can't make an index unique so the plain ones it created before are dropped
+    await addIndexes("Activity", schema => {
+        schema.addPointer("userID", "_User");
+        schema.addPointer("guideID", "Guide");
+        schema.addPointer("locationID", "Location");
+        schema.addString("type");
+    }, {
+        locationID_type: { _p_locationID: 1, type: 1 },
+        guideID_type: { _p_guideID: 1, type: 1 }
+    });
+    await dropIndexes("Activity", ["userID_type_guideID", "userID_type_locationID"]);
+
+    // author snapshots are rewritten per author
+    await addIndexes("Guide", schema => {
+        schema.addPointer("locationID", "Location");
+        schema.addPointer("author", "_User");
+    }, {
+        author_1: { _p_author: 1 }
+    });
 
-    // top 3 locations
-    return topLocations.splice(0, 3);
+    await addIndexes("Tombstone", schema => {
+        schema.addString("targetClass");
+        schema.addString("targetID");
+        schema.addString("scope");
+    }, {});
+
+    // pending notifications are read in full by every run of sendNotificationDigests
+    await addIndexes("PendingNotification", schema => {
+        schema.addString("locationID");
+        schema.addString("locationName");
+        schema.addString("authorID");
+        schema.addNumber("claims");
+        schema.addDate("claimedAt");
+    }, {});
+
+    // synced results are refreshed by updatedAt and deletions are read per class and scope, those indexes are on
+    // _updated_at and _created_at which the Schema API can't take, they are created by migrations/storage_indexes.js
+    await dropIndexes("Guide", ["locationID_updatedAt"]);
+    await dropIndexes("Location", ["updatedAt_1"]);
+    await dropIndexes("Tombstone", ["targetClass_scope_createdAt"]);
+
+    return "Indexes created";
 });
 
 
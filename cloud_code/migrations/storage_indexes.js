@@ -0,0 +1,26 @@
+// one-off migration for the indexes Cloud Code can't declare, run it with the mongo shell against the app's database:
+//
+//     mongosh "<database URI from the app's server settings>" cloud_code/migrations/storage_indexes.js
+//
+// the Schema API used by the createIndexes job only accepts schema fields, while createdAt and updatedAt are
+// stored as _created_at and _updated_at, so indexes on them have to be created on the collections directly
+// it can't make an index unique either
+// createIndex leaves an index with the same name and keys as it is, so the script can be run again
+//
+// run the migrateActivities and createIndexes jobs first, the unique indexes can't be built while duplicates remain
+
+// synced guides of a location are refreshed by updatedAt
+db.Guide.createIndex({ _p_locationID: 1, _updated_at: 1 }, { name: "locationID_updated_at", background: true });
+
+// synced locations are refreshed by updatedAt
+db.Location.createIndex({ _updated_at: 1 }, { name: "updated_at_1", background: true });
+
+// deletions are read per class and scope in the order they happened
+db.Tombstone.createIndex({ targetClass: 1, scope: 1, _created_at: 1 }, { name: "targetClass_scope_created_at", background: true });
+
+// a user likes a guide and follows a location at most once, parse-server turns a duplicate key into DUPLICATE_VALUE
+db.Activity.createIndex({ _p_userID: 1, type: 1, _p_guideID: 1 }, { name: "userID_type_guideID_unique", unique: true, partialFilterExpression: { type: "like" }, background: true });
+db.Activity.createIndex({ _p_userID: 1, type: 1, _p_locationID: 1 }, { name: "userID_type_locationID_unique", unique: true, partialFilterExpression: { type: "follow" }, background: true });
+
+// uploads are reused per user, so a hash is registered once per owner, rows registered before owners were set are left out
+db.Media.createIndex({ hash: 1, _p_owner: 1 }, { name: "hash_owner_unique", unique: true, partialFilterExpression: { _p_owner: { $exists: true } }, background: true });